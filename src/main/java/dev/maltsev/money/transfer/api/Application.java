@@ -1,13 +1,30 @@
 package dev.maltsev.money.transfer.api;
 
 import com.beust.jcommander.JCommander;
-import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.service.IAccountLedger;
 import dev.maltsev.money.transfer.api.service.IQueryService;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.TransferEngine;
+import dev.maltsev.money.transfer.api.service.impl.IdempotencyCache;
+import dev.maltsev.money.transfer.api.service.impl.LedgerTransferCommandService;
 import dev.maltsev.money.transfer.api.service.impl.QueryService;
 import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
 import dev.maltsev.money.transfer.api.service.impl.WithdrawCommandService;
+import dev.maltsev.money.transfer.api.verticle.AdminServerVerticle;
+import dev.maltsev.money.transfer.api.verticle.AdmissionControl;
+import dev.maltsev.money.transfer.api.verticle.BlockingExecutor;
+import dev.maltsev.money.transfer.api.verticle.BoundedExecutor;
+import dev.maltsev.money.transfer.api.verticle.CustomerRateLimiter;
+import dev.maltsev.money.transfer.api.verticle.EventBusTransactionListener;
+import dev.maltsev.money.transfer.api.verticle.ExecutionMode;
 import dev.maltsev.money.transfer.api.verticle.HttpServerVerticle;
+import dev.maltsev.money.transfer.api.verticle.LocalTransactionCodec;
+import dev.maltsev.money.transfer.api.verticle.TransactionProcessorVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import org.slf4j.Logger;
@@ -37,14 +54,55 @@ public class Application {
         }
     }
 
-    private static void run(Parameters params) {
+    public static Vertx run(Parameters params) {
         Vertx vertx = Vertx.vertx();
-        Sql2o sql2o = setupDatabase();
-        ICommandService transferCommandService = new TransferCommandService(sql2o);
-        ICommandService withdrawCommandService = new WithdrawCommandService(sql2o);
+        vertx.eventBus().registerDefaultCodec(Transaction.class, new LocalTransactionCodec());
+        Sql2o sql2o = setupDatabase(params.getStatementCacheSize());
+        ITransactionListener transactionListener = new EventBusTransactionListener(vertx);
+        // request IDs are unique per payer across transaction types, so the cache is shared by the services
+        IdempotencyCache idempotencyCache = params.getIdempotencyCacheSize() > 0
+                ? new IdempotencyCache(params.getIdempotencyCacheSize(), params.getIdempotencyCacheTtl())
+                : IdempotencyCache.DISABLED;
+        ITransferCommandService transferCommandService = params.getTransferEngine() == TransferEngine.LEDGER
+                ? new LedgerTransferCommandService(sql2o, transactionListener, idempotencyCache)
+                : new TransferCommandService(sql2o, transactionListener, idempotencyCache);
+        // the ledger engine keeps the balances, so the withdrawals are debited and refunded through it as well
+        IWithdrawCommandService withdrawCommandService = new WithdrawCommandService(sql2o, transactionListener, idempotencyCache,
+                params.getWithdrawalServiceLatency(),
+                transferCommandService instanceof LedgerTransferCommandService ledger ? ledger : IAccountLedger.NONE);
         IQueryService queryService = new QueryService(sql2o);
-        vertx.deployVerticle(new HttpServerVerticle(transferCommandService, withdrawCommandService, queryService, params));
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> destroyVertx(vertx, params)));
+
+        // Executors are shared by all verticle instances, so the limits apply to a workload as a whole
+        BlockingExecutor requestExecutor = params.getExecutionMode() == ExecutionMode.VIRTUAL
+                ? BlockingExecutor.virtualThreads(vertx, "request", params.getRequestConcurrency())
+                : BlockingExecutor.workerPool(vertx);
+        AdmissionControl admissionControl = new AdmissionControl(requestExecutor, params.getMaxInFlightRequests(),
+                new CustomerRateLimiter("transfer", params.getTransferRateLimit(), params.getTransferBurst(), params.getMaxRateLimitedCustomers()),
+                new CustomerRateLimiter("withdrawal", params.getWithdrawalRateLimit(), params.getWithdrawalBurst(),
+                        params.getMaxRateLimitedCustomers()));
+        BlockingExecutor transferExecutor = new BoundedExecutor(BlockingExecutor.create(vertx, params.getExecutionMode(),
+                "transfer-worker-pool", params.getTransferWorkerPoolSize(), params.getTransferConcurrency()),
+                "transfer", params.getMaxInFlightTransfers());
+        BlockingExecutor withdrawalExecutor = new BoundedExecutor(BlockingExecutor.create(vertx, params.getExecutionMode(),
+                "withdrawal-worker-pool", params.getWithdrawalWorkerPoolSize(), params.getWithdrawalConcurrency()),
+                "withdrawal", params.getMaxInFlightWithdrawals());
+
+        // Background processing and the admin server are deployed once, while HTTP servers are deployed as several instances sharing the
+        // same port
+        vertx.deployVerticle(new TransactionProcessorVerticle(transferCommandService, withdrawCommandService, queryService, transferExecutor,
+                        withdrawalExecutor, params))
+                .compose(id -> vertx.deployVerticle(() -> new HttpServerVerticle(transferCommandService, withdrawCommandService, queryService,
+                        admissionControl, params), new DeploymentOptions().setInstances(params.getHttpServerInstances())))
+                .compose(id -> vertx.deployVerticle(new AdminServerVerticle(admissionControl, params)))
+                .onFailure(e -> LOG.error("Failed to deploy verticles: {}", e.getMessage()));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            destroyVertx(vertx, params);
+            // the transfers executed by the ledger engine are persisted before exiting
+            if (transferCommandService instanceof LedgerTransferCommandService ledgerTransferCommandService) {
+                ledgerTransferCommandService.close(params.getShutdownHookTimeout());
+            }
+        }));
+        return vertx;
     }
 
     public static void destroyVertx(Vertx vertx, Parameters args) {
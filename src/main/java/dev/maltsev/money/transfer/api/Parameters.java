@@ -1,9 +1,15 @@
 package dev.maltsev.money.transfer.api;
 
 import com.beust.jcommander.Parameter;
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.service.TransferEngine;
+import dev.maltsev.money.transfer.api.verticle.ExecutionMode;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Getter
 @Setter
 public class Parameters {
@@ -11,23 +17,228 @@ public class Parameters {
     @Parameter(names = {"--port", "-p"}, description = "The port number on which the server should run. Default is 8080.", arity = 1)
     private int port = 8080;
 
+    @Parameter(names = "--adminPort",
+            description = "The port number of the admin server, which changes settings such as the rate limits at runtime. Default is 8081.",
+            arity = 1)
+    private int adminPort = 8081;
+
+    @Parameter(names = "--adminHost",
+            description = "The address the admin server is bound to, it has no authentication of its own, so it's reachable only from "
+                    + "the same host by default. Default is 127.0.0.1.",
+            arity = 1)
+    private String adminHost = "127.0.0.1";
+
+    @Parameter(names = {"--httpServerInstances", "-i"},
+            description = "Amount of HTTP server verticle instances sharing the port, each one bound to its own event loop. "
+                    + "Default is the number of available processors.",
+            arity = 1)
+    private int httpServerInstances = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--executionMode", "-x"},
+            description = "Threads making blocking calls: WORKER for fixed-size worker pools, VIRTUAL for a virtual thread per call limited by "
+                    + "the concurrency of its workload. Default is WORKER.",
+            arity = 1)
+    private ExecutionMode executionMode = ExecutionMode.WORKER;
+
+    @Parameter(names = "--requestConcurrency",
+            description = "Maximum amount of HTTP requests handled simultaneously in VIRTUAL execution mode. Default is 1000.",
+            arity = 1)
+    private int requestConcurrency = 1000;
+
+    @Parameter(names = "--withdrawalConcurrency",
+            description = "Maximum amount of withdrawal transactions handled simultaneously in VIRTUAL execution mode. Default is 200.",
+            arity = 1)
+    private int withdrawalConcurrency = 200;
+
+    @Parameter(names = "--transferConcurrency",
+            description = "Maximum amount of transfer transactions handled simultaneously in VIRTUAL execution mode. Default is 100.",
+            arity = 1)
+    private int transferConcurrency = 100;
+
+    @Parameter(names = "--maxInFlightRequests",
+            description = "Maximum amount of requests of a single endpoint either handled or waiting to be handled, "
+                    + "the rest are rejected with 429 Too Many Requests. Default is 1000.",
+            arity = 1)
+    private int maxInFlightRequests = 1000;
+
+    @Parameter(names = "--maxInFlightTransfers",
+            description = "Maximum amount of transfer transactions either executed or waiting to be executed, the rest are left "
+                    + "to the recovery. Default is 10000.",
+            arity = 1)
+    private int maxInFlightTransfers = 10_000;
+
+    @Parameter(names = "--maxInFlightWithdrawals",
+            description = "Maximum amount of withdrawal transactions either executed or waiting to be executed, the rest are retried "
+                    + "later. Default is 10000.",
+            arity = 1)
+    private int maxInFlightWithdrawals = 10_000;
+
+    @Parameter(names = "--transferRateLimit",
+            description = "Amount of transfer, batch and import requests per second a single customer is allowed to make in the long run, "
+                    + "the rest are rejected with 429 Too Many Requests. Can be changed at runtime. Default is 100.",
+            arity = 1)
+    private double transferRateLimit = 100;
+
+    @Parameter(names = "--transferBurst",
+            description = "Amount of transfer, batch and import requests a single customer is allowed to make at once. Can be changed at "
+                    + "runtime. Default is 200.",
+            arity = 1)
+    private int transferBurst = 200;
+
+    @Parameter(names = "--withdrawalRateLimit",
+            description = "Amount of withdraw and import requests per second a single customer is allowed to make in the long run, "
+                    + "the rest are rejected with 429 Too Many Requests. Can be changed at runtime. Default is 100.",
+            arity = 1)
+    private double withdrawalRateLimit = 100;
+
+    @Parameter(names = "--withdrawalBurst",
+            description = "Amount of withdraw and import requests a single customer is allowed to make at once. Can be changed at runtime. "
+                    + "Default is 200.",
+            arity = 1)
+    private int withdrawalBurst = 200;
+
+    @Parameter(names = "--maxRateLimitedCustomers",
+            description = "Maximum amount of customers whose request rate is tracked per kind of request, idle customers are forgotten "
+                    + "to make room, and new customers are rejected while there's none. Default is 100000.",
+            arity = 1)
+    private int maxRateLimitedCustomers = 100_000;
+
+    @Parameter(names = "--idempotencyCacheSize",
+            description = "Maximum amount of recently created transactions kept in memory by request ID and payer, so that retried requests "
+                    + "are answered without a database round trip. 0 disables the cache. Default is 100000.",
+            arity = 1)
+    private int idempotencyCacheSize = 100_000;
+
+    @Parameter(names = "--idempotencyCacheTtl",
+            description = "Time in milliseconds a created transaction is kept in the idempotency cache. Default is 600000.",
+            arity = 1)
+    private long idempotencyCacheTtl = 600_000;
+
+    @Parameter(names = "--statementCacheSize",
+            description = "Maximum amount of prepared statements kept open per worker thread and of parsed queries kept in memory, so "
+                    + "that the queries repeated for every transaction are prepared once per thread. Virtual threads don't keep "
+                    + "statements. 0 disables the cache. Default is 64.",
+            arity = 1)
+    private int statementCacheSize = DaoUtils.DEFAULT_STATEMENT_CACHE_SIZE;
+
     @Parameter(names = {"--withdrawalWorkerPoolSize", "-w"},
-            description = "Amount of worker threads used to handle withdrawal transactions simultaneously. Default is 20.",
+            description = "Amount of worker threads used to handle withdrawal transactions simultaneously in WORKER execution mode. "
+                    + "Default is 20.",
             arity = 1)
     private int withdrawalWorkerPoolSize = 20;
 
     @Parameter(names = {"--transferWorkerPoolSize", "-t"},
-            description = "Amount of worker threads used to handle transfer transactions simultaneously. Default is 10.",
+            description = "Amount of worker threads used to handle transfer transactions simultaneously in WORKER execution mode. "
+                    + "Default is 10.",
             arity = 1)
     private int transferWorkerPoolSize = 10;
 
+    @Parameter(names = {"--maxBatchSize", "-b"}, description = "Maximum amount of transfers accepted by a single batch request. Default is 1000.",
+            arity = 1)
+    private int maxBatchSize = 1000;
+
+    @Parameter(names = {"--importChunkSize", "-c"},
+            description = "Amount of lines of an NDJSON import request created within a single database transaction. Default is 500.",
+            arity = 1)
+    private int importChunkSize = 500;
+
+    @Parameter(names = {"--maxStatusWaitTime", "-m"},
+            description = "Maximum time in milliseconds a status request may wait for the transaction to be finished. Default is 30000.",
+            arity = 1)
+    private long maxStatusWaitTime = 30_000;
+
+    @Parameter(names = {"--eventStreamWriteQueueSize", "-e"},
+            description = "Maximum amount of bytes waiting to be sent to a client of the transaction event stream before it's disconnected. "
+                    + "Default is 65536.",
+            arity = 1)
+    private int eventStreamWriteQueueSize = 65_536;
+
     @Parameter(names = "--help", description = "To read this help ;)", help = true)
     private boolean help;
 
+    @Parameter(names = "--transferEngine",
+            description = "Where transfer transactions are executed: DATABASE under account locks, LEDGER in memory by a single-threaded "
+                    + "engine persisting them asynchronously, which withdrawals are debited through as well. Default is DATABASE.",
+            arity = 1)
+    private TransferEngine transferEngine = TransferEngine.DATABASE;
+
+    @Parameter(names = "--transferLanes",
+            description = "Amount of lanes transfer transactions are routed to by payer account, each one executing its transfers "
+                    + "in order, a single batch at a time. Default is 10.",
+            arity = 1)
+    private int transferLanes = 10;
+
+    @Parameter(names = "--transferBatchSize",
+            description = "Maximum amount of transfer transactions of a lane executed together in a single database transaction, "
+                    + "1 to execute them one by one. Default is 50.",
+            arity = 1)
+    private int transferBatchSize = 50;
+
+    @Parameter(names = "--transferBatchDelay",
+            description = "Maximum time in milliseconds a transfer transaction waits for its batch to fill up. Default is 5.",
+            arity = 1)
+    private long transferBatchDelay = 5;
+
+    @Parameter(names = "--stripedAccounts",
+            description = "Comma-separated numbers of the accounts receiving many transfers, whose balances are split into stripes taking "
+                    + "their credits. Default is none.")
+    private List<String> stripedAccounts = new ArrayList<>();
+
+    @Parameter(names = "--accountStripes", description = "Amount of stripes of a striped account. Default is 8.", arity = 1)
+    private int accountStripes = 8;
+
+    @Parameter(names = "--stripeCompactionInterval",
+            description = "An interval in milliseconds between folds of the stripes back into the striped accounts. Default is 10000.",
+            arity = 1)
+    private long stripeCompactionInterval = 10_000;
+
+    @Parameter(names = "--withdrawalPollInterval",
+            description = "Time in milliseconds before the first check of an awaiting withdrawal with the external service, doubled with "
+                    + "every next check. Default is 1000.",
+            arity = 1)
+    private long withdrawalPollInterval = 1000;
+
+    @Parameter(names = "--withdrawalPollMaxInterval",
+            description = "Maximum time in milliseconds between checks of an awaiting withdrawal with the external service. Default is 30000.",
+            arity = 1)
+    private long withdrawalPollMaxInterval = 30_000;
+
+    @Parameter(names = "--withdrawalPollBatchSize",
+            description = "Maximum amount of awaiting withdrawals checked with the external service at once. Default is 100.",
+            arity = 1)
+    private int withdrawalPollBatchSize = 100;
+
+    @Parameter(names = "--withdrawalDispatchBatchSize",
+            description = "Maximum amount of debited withdrawals sent from the outbox to the external service at once. Default is 100.",
+            arity = 1)
+    private int withdrawalDispatchBatchSize = 100;
+
+    @Parameter(names = "--withdrawalDispatchInterval",
+            description = "An interval in milliseconds between sweeps of the withdrawal outbox for withdrawals to retry. Default is 1000.",
+            arity = 1)
+    private long withdrawalDispatchInterval = 1000;
+
+    @Parameter(names = "--withdrawalServiceLatency",
+            description = "Time in milliseconds every call to the external withdrawal service stub takes, to simulate a remote service. "
+                    + "Default is 0.",
+            arity = 1)
+    private long withdrawalServiceLatency = 0;
+
     @Parameter(names = {"--recoveryInterval", "-r"}, description = "An interval in milliseconds between transaction recovery attempts. Default is 60000.",
             arity = 1)
     private long recoveryInterval = 60_000;
 
+    @Parameter(names = "--recoveryStaleness",
+            description = "Time in milliseconds since the last update of a processing or awaiting transaction after which it's recovered. "
+                    + "Default is 60000.",
+            arity = 1)
+    private long recoveryStaleness = 60_000;
+
+    @Parameter(names = "--recoveryRate",
+            description = "Maximum amount of stuck transactions recovered per second. Default is 100.",
+            arity = 1)
+    private int recoveryRate = 100;
+
     @Parameter(names = {"--shutdownHookTimeout", "-s"},
             description = "A timeout in milliseconds for graceful shutdown hook to wait for the server to stop. Default is 10000.",
             arity = 1)
@@ -2,13 +2,20 @@ package dev.maltsev.money.transfer.api.dao;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
 import dev.maltsev.money.transfer.api.domain.entity.Account;
-import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.domain.object.LockedAccount;
 import lombok.NoArgsConstructor;
 import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.ResultSetHandler;
 
 import java.math.BigDecimal;
-import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static lombok.AccessLevel.PRIVATE;
 
@@ -22,48 +29,330 @@ public class AccountDao {
                 .executeUpdate();
     }
 
-    public static Account toAccount(ResultSet resultSet) throws SQLException {
-        String number = resultSet.getString("number");
-        BigDecimal balance = resultSet.getBigDecimal("balance");
-        return new Account(number, balance);
+    /**
+     * Credits the recipient account, a striped one by a random stripe, so that concurrent credits don't wait for each other's lock of the
+     * account.
+     *
+     * @param stripes the amount of stripes of the recipient account, read by {@link #lockTransferAccounts(Transaction, Connection)}
+     */
+    public static void addAmountToRecipientAccount(Transaction transaction, int stripes, Connection connection) {
+        if (stripes > 0) {
+            connection.createQuery(
+                            "UPDATE account_stripes SET balance = balance + :amount WHERE account_number = :number AND stripe = :stripe")
+                    .addParameter("amount", transaction.amount().value())
+                    .addParameter("number", transaction.recipientAccountNumber())
+                    .addParameter("stripe", ThreadLocalRandom.current().nextInt(stripes))
+                    .executeUpdate();
+        } else {
+            connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number")
+                    .addParameter("amount", transaction.amount().value())
+                    .addParameter("number", transaction.recipientAccountNumber())
+                    .executeUpdate();
+        }
     }
 
-    public static void addAmountToRecipientAccount(Transaction transaction, Connection connection) {
+    public static void refundPayerAccount(Transaction transaction, Connection connection) {
         connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number")
                 .addParameter("amount", transaction.amount().value())
-                .addParameter("number", transaction.recipientAccountNumber())
+                .addParameter("number", transaction.payerAccountNumber())
                 .executeUpdate();
     }
-    public static void refundPayerAccount(Transaction transaction, Connection connection) {
-        connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number")
+
+    public static void refundPayerAccounts(Collection<Transaction> transactions, Connection connection) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        Query query = connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number");
+        transactions.forEach(transaction -> query
                 .addParameter("amount", transaction.amount().value())
                 .addParameter("number", transaction.payerAccountNumber())
-                .executeUpdate();
+                .addToBatch());
+        query.executeBatch();
     }
 
-    public static void lockInvolvedAccounts(Transaction transaction, Connection connection) {
-        if (transaction.type() == TransactionType.TRANSFER) {
-            connection.createQuery("SELECT * FROM accounts WHERE number IN (:payerAccountNumber, :recipientAccountNumber) FOR UPDATE")
-                    .addParameter("payerAccountNumber", transaction.payerAccountNumber())
-                    .addParameter("recipientAccountNumber", transaction.recipientAccountNumber())
-                    .executeAndFetchTable();
-        } else {
-            connection.createQuery("SELECT * FROM accounts WHERE number = :number FOR UPDATE")
-                    .addParameter("number", transaction.payerAccountNumber())
-                    .executeAndFetchTable();
+    /**
+     * Locks the payer accounts of the transactions in the order of their numbers, so that concurrent callers don't deadlock.
+     */
+    public static void lockPayerAccounts(Collection<Transaction> transactions, Connection connection) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        connection.createQuery("SELECT * FROM accounts WHERE number IN (:numbers) ORDER BY number FOR UPDATE")
+                .addParameter("numbers", transactions.stream().map(Transaction::payerAccountNumber).distinct().toList())
+                .executeAndFetchTable();
+    }
+
+    /**
+     * Locks the accounts in the order of their numbers, so that concurrent callers locking overlapping sets don't deadlock. The striped
+     * accounts which are only credited are read without a lock, as they are credited by their stripes.
+     *
+     * @param debitedNumbers the numbers of the accounts to be debited, which are locked whether they are striped or not
+     * @return the balance of the accounts by number, including their stripes, the unknown numbers are missing
+     */
+    public static Map<String, BigDecimal> lockAccountsByNumbers(Collection<String> numbers, Collection<String> debitedNumbers,
+                                                                Connection connection) {
+        if (numbers.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, BigDecimal> balances = toBalances(connection.createQuery("SELECT number, balance FROM accounts "
+                        + "WHERE number IN (:numbers) AND (stripes = 0 OR number IN (:debitedNumbers)) ORDER BY number FOR UPDATE")
+                .addParameter("numbers", numbers)
+                .addParameter("debitedNumbers", debitedNumbers));
+        // an account is never unstriped, so the one left out of the lock stays striped
+        balances.putAll(toBalances(connection.createQuery("SELECT number, balance FROM accounts "
+                        + "WHERE number IN (:numbers) AND stripes > 0 AND number NOT IN (:debitedNumbers)")
+                .addParameter("numbers", numbers)
+                .addParameter("debitedNumbers", debitedNumbers)));
+        toBalances(connection.createQuery("SELECT account_number AS number, SUM(balance) AS balance FROM account_stripes "
+                        + "WHERE account_number IN (:numbers) GROUP BY account_number")
+                .addParameter("numbers", numbers))
+                .forEach((number, balance) -> balances.merge(number, balance, BigDecimal::add));
+        return balances;
+    }
+
+    /**
+     * Adds the amounts to the balances, crediting a striped account by a random stripe, so that the account doesn't have to be locked
+     * for the credit. The stripes of a debited striped account are folded into it first, so that its own balance covers the debit.
+     *
+     * @param amounts the amount to add to the balance by account number, negative to subtract
+     */
+    public static void addAmountsToAccounts(Map<String, BigDecimal> amounts, Connection connection) {
+        if (amounts.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> stripes = getStripedAccounts(amounts.keySet(), connection);
+        Query accountQuery = connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number");
+        Query stripeQuery = connection.createQuery(
+                "UPDATE account_stripes SET balance = balance + :amount WHERE account_number = :number AND stripe = :stripe");
+        boolean accountsUpdated = false;
+        boolean stripesCredited = false;
+        for (Map.Entry<String, BigDecimal> entry : amounts.entrySet()) {
+            String number = entry.getKey();
+            BigDecimal amount = entry.getValue();
+            int accountStripes = stripes.getOrDefault(number, 0);
+            if (accountStripes > 0 && amount.signum() > 0) {
+                stripeQuery.addParameter("amount", amount)
+                        .addParameter("number", number)
+                        .addParameter("stripe", ThreadLocalRandom.current().nextInt(accountStripes))
+                        .addToBatch();
+                stripesCredited = true;
+            } else {
+                if (accountStripes > 0) {
+                    foldAccountStripes(number, connection);
+                }
+                accountQuery.addParameter("amount", amount).addParameter("number", number).addToBatch();
+                accountsUpdated = true;
+            }
+        }
+        if (accountsUpdated) {
+            accountQuery.executeBatch();
+        }
+        if (stripesCredited) {
+            stripeQuery.executeBatch();
         }
     }
 
-    public static void subtractAmountFromPayerAccount(Transaction transaction, Connection connection) {
-        connection.createQuery("UPDATE accounts SET balance = balance - :amount WHERE number = :number")
+    /**
+     * Locks the payer account of a withdrawal.
+     */
+    public static void lockInvolvedAccounts(Transaction transaction, Connection connection) {
+        lockAccount(transaction.payerAccountNumber(), connection);
+    }
+
+    /**
+     * Locks the accounts of a transfer in the order of their numbers by a single query, reading their balances along with whether they
+     * belong to the payer and the recipient respectively. A striped recipient is read without a lock, as it's credited by one of its
+     * stripes, and the stripes are summed up without being locked, as they are only credited concurrently.
+     *
+     * @return the read accounts by number, the unknown numbers are missing
+     */
+    public static Map<String, LockedAccount> lockTransferAccounts(Transaction transaction, Connection connection) {
+        Map<String, LockedAccount> accounts = new HashMap<>();
+        fetchTransferAccounts(transaction, connection, "WHERE a.number IN (:payerAccountNumber, :recipientAccountNumber) "
+                + "AND (a.number = :payerAccountNumber OR a.stripes = 0) ORDER BY a.number FOR UPDATE")
+                // the same account of both is found twice if it belongs to both customers
+                .forEach(account -> accounts.merge(account.number(), account, (first, second) -> first.owner() != null ? first : second));
+        // an account is never unstriped, so the recipient left out of the lock stays striped
+        fetchTransferAccounts(transaction, connection, "WHERE a.number = :recipientAccountNumber AND a.number <> :payerAccountNumber "
+                + "AND a.stripes > 0")
+                .forEach(account -> accounts.put(account.number(), account));
+        return accounts;
+    }
+
+    public static void lockAccount(String number, Connection connection) {
+        connection.createQuery("SELECT * FROM accounts WHERE number = :number FOR UPDATE")
+                .addParameter("number", number)
+                .executeAndFetchTable();
+    }
+
+    /**
+     * Debits the payer account by a single update guarded by its balance and its owner, so that concurrent debits can't overdraw it
+     * whether it's been locked before or not, and the account doesn't have to be locked for the debit. Only the own balance of the
+     * account counts, not its stripes.
+     *
+     * @return whether the account has been debited, false if it doesn't belong to the payer or its own balance doesn't cover the amount
+     */
+    public static boolean tryDebitPayerAccount(Transaction transaction, Connection connection) {
+        return connection.createQuery("UPDATE accounts SET balance = balance - :amount WHERE number = :number AND balance >= :amount "
+                        + "AND EXISTS (SELECT 1 FROM customer_accounts WHERE account_number = :number AND customer_login = :payer)")
                 .addParameter("amount", transaction.amount().value())
                 .addParameter("number", transaction.payerAccountNumber())
-                .executeUpdate();
+                .addParameter("payer", transaction.payer())
+                .executeUpdate()
+                .getResult() > 0;
     }
 
+    /**
+     * The same debit of the payer account, which has been locked and read by {@link #lockTransferAccounts(Transaction, Connection)}. If
+     * its own balance doesn't cover the debit, its stripes are folded into it first.
+     *
+     * @return whether the account has been debited
+     */
+    public static boolean subtractAmountFromPayerAccount(Transaction transaction, LockedAccount payerAccount, Connection connection) {
+        if (payerAccount.stripes() > 0 && payerAccount.balance().compareTo(transaction.amount().value()) < 0) {
+            foldAccountStripes(transaction.payerAccountNumber(), connection);
+        }
+        return tryDebitPayerAccount(transaction, connection);
+    }
+
+    /**
+     * @return the account with its balance including its stripes
+     */
     public static Account getAccountByNumber(String accountNumber, Connection connection) {
-        return connection.createQuery("SELECT * FROM accounts WHERE number = :number")
+        return connection.createQuery("SELECT a.number, a.balance + COALESCE(SUM(s.balance), 0) AS balance FROM accounts a "
+                        + "LEFT JOIN account_stripes s ON s.account_number = a.number WHERE a.number = :number "
+                        + "GROUP BY a.number, a.balance")
                 .addParameter("number", accountNumber)
                 .executeAndFetchFirst(AccountDao::toAccount);
     }
+
+    /**
+     * @return the balance of every account by number, including its stripes
+     */
+    public static Map<String, BigDecimal> getAllAccountBalances(Connection connection) {
+        return toBalances(connection.createQuery("SELECT a.number, a.balance + COALESCE(SUM(s.balance), 0) AS balance FROM accounts a "
+                + "LEFT JOIN account_stripes s ON s.account_number = a.number GROUP BY a.number, a.balance"));
+    }
+
+    public static List<String> getStripedAccountNumbers(Connection connection) {
+        return connection.createQuery("SELECT number FROM accounts WHERE stripes > 0 ORDER BY number")
+                .executeScalarList(String.class);
+    }
+
+    /**
+     * Splits the balance of the account into the given amount of stripes taking its credits, in addition to its own balance. An account
+     * is never merged back by reducing its stripes.
+     *
+     * @return whether the account exists
+     */
+    public static boolean stripeAccount(String accountNumber, int stripes, Connection connection) {
+        Integer current = connection.createQuery("SELECT stripes FROM accounts WHERE number = :number FOR UPDATE")
+                .addParameter("number", accountNumber)
+                .executeScalar(Integer.class);
+        if (current == null) {
+            return false;
+        }
+        if (current < stripes) {
+            Query query = connection.createQuery("INSERT INTO account_stripes (account_number, stripe) VALUES (:number, :stripe)");
+            for (int stripe = current; stripe < stripes; stripe++) {
+                query.addParameter("number", accountNumber).addParameter("stripe", stripe).addToBatch();
+            }
+            query.executeBatch();
+            connection.createQuery("UPDATE accounts SET stripes = :stripes WHERE number = :number")
+                    .addParameter("stripes", stripes)
+                    .addParameter("number", accountNumber)
+                    .executeUpdate();
+        }
+        return true;
+    }
+
+    /**
+     * Moves the balances of the stripes of the account into the account itself, locking the stripes in their order. The account itself
+     * must be locked by the caller.
+     */
+    public static void foldAccountStripes(String accountNumber, Connection connection) {
+        BigDecimal total = connection.createQuery(
+                        "SELECT balance FROM account_stripes WHERE account_number = :number ORDER BY stripe FOR UPDATE")
+                .addParameter("number", accountNumber)
+                .executeScalarList(BigDecimal.class)
+                .stream()
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        if (total.signum() == 0) {
+            return;
+        }
+        connection.createQuery("UPDATE account_stripes SET balance = 0 WHERE account_number = :number")
+                .addParameter("number", accountNumber)
+                .executeUpdate();
+        connection.createQuery("UPDATE accounts SET balance = balance + :amount WHERE number = :number")
+                .addParameter("amount", total)
+                .addParameter("number", accountNumber)
+                .executeUpdate();
+    }
+
+    private static List<LockedAccount> fetchTransferAccounts(Transaction transaction, Connection connection, String condition) {
+        return connection.createQuery("SELECT a.number, a.balance, a.stripes, (SELECT COALESCE(SUM(s.balance), 0) FROM account_stripes s "
+                        + "WHERE s.account_number = a.number) AS stripes_balance, ca.customer_login FROM accounts a "
+                        + "LEFT JOIN customer_accounts ca ON ca.account_number = a.number "
+                        + "AND (a.number = :payerAccountNumber AND ca.customer_login = :payer "
+                        + "OR a.number = :recipientAccountNumber AND ca.customer_login = :recipient) " + condition)
+                .addParameter("payerAccountNumber", transaction.payerAccountNumber())
+                .addParameter("payer", transaction.payer())
+                .addParameter("recipientAccountNumber", transaction.recipientAccountNumber())
+                .addParameter("recipient", transaction.recipient())
+                .executeAndFetch(AccountDao::toLockedAccount);
+    }
+
+    /**
+     * @return the amount of stripes by account number of the striped accounts among the given ones
+     */
+    private static Map<String, Integer> getStripedAccounts(Collection<String> accountNumbers, Connection connection) {
+        Map<String, Integer> stripes = new HashMap<>();
+        connection.createQuery("SELECT number, stripes FROM accounts WHERE number IN (:numbers) AND stripes > 0")
+                .addParameter("numbers", accountNumbers)
+                .executeAndFetch(AccountDao::toStripes)
+                .forEach(account -> stripes.put(account.getKey(), account.getValue()));
+        return stripes;
+    }
+
+    private static Map<String, BigDecimal> toBalances(Query query) {
+        Map<String, BigDecimal> balances = new HashMap<>();
+        query.executeAndFetch(AccountDao::toBalance).forEach(balance -> balances.put(balance.getKey(), balance.getValue()));
+        return balances;
+    }
+
+    private static ResultSetHandler<Map.Entry<String, BigDecimal>> toBalance(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int number = columns.get("NUMBER");
+        int balance = columns.get("BALANCE");
+        return resultSet -> Map.entry(resultSet.getString(number), resultSet.getBigDecimal(balance));
+    }
+
+    /**
+     * Resolves the indexes of the account columns once per result set, so the rows are read by index rather than looking every column up
+     * by its name.
+     */
+    private static ResultSetHandler<Account> toAccount(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int number = columns.get("NUMBER");
+        int balance = columns.get("BALANCE");
+        return resultSet -> new Account(resultSet.getString(number), resultSet.getBigDecimal(balance));
+    }
+
+    private static ResultSetHandler<Map.Entry<String, Integer>> toStripes(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int number = columns.get("NUMBER");
+        int stripes = columns.get("STRIPES");
+        return resultSet -> Map.entry(resultSet.getString(number), resultSet.getInt(stripes));
+    }
+
+    private static ResultSetHandler<LockedAccount> toLockedAccount(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int number = columns.get("NUMBER");
+        int balance = columns.get("BALANCE");
+        int stripesBalance = columns.get("STRIPES_BALANCE");
+        int stripes = columns.get("STRIPES");
+        int owner = columns.get("CUSTOMER_LOGIN");
+        return resultSet -> new LockedAccount(resultSet.getString(number), resultSet.getBigDecimal(balance),
+                resultSet.getBigDecimal(stripesBalance), resultSet.getInt(stripes), resultSet.getString(owner));
+    }
 }
@@ -4,8 +4,13 @@ import dev.maltsev.money.transfer.api.domain.entity.Account;
 import dev.maltsev.money.transfer.api.domain.entity.Customer;
 import lombok.NoArgsConstructor;
 import org.sql2o.Connection;
+import org.sql2o.Query;
 import org.sql2o.ResultSetHandler;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import static dev.maltsev.money.transfer.api.dao.AccountDao.insertAccount;
 import static lombok.AccessLevel.PRIVATE;
 
@@ -38,4 +43,31 @@ public class CustomerDao {
                 .addParameter("number", accountNumber)
                 .executeAndFetchFirst((ResultSetHandler<String>) resultSet -> resultSet.getString("customer_login"));
     }
+
+    /**
+     * @return the login of the owner by account number, the unknown numbers are missing
+     */
+    public static Map<String, String> getAccountOwners(Collection<String> accountNumbers, Connection connection) {
+        if (accountNumbers.isEmpty()) {
+            return Map.of();
+        }
+        return toAccountOwners(connection.createQuery(
+                        "SELECT account_number, customer_login FROM customer_accounts WHERE account_number IN (:numbers)")
+                .addParameter("numbers", accountNumbers));
+    }
+
+    /**
+     * @return the login of the owner by account number
+     */
+    public static Map<String, String> getAllAccountOwners(Connection connection) {
+        return toAccountOwners(connection.createQuery("SELECT account_number, customer_login FROM customer_accounts"));
+    }
+
+    private static Map<String, String> toAccountOwners(Query query) {
+        Map<String, String> owners = new HashMap<>();
+        query.executeAndFetch((ResultSetHandler<Map.Entry<String, String>>) resultSet ->
+                        Map.entry(resultSet.getString("account_number"), resultSet.getString("customer_login")))
+                .forEach(owner -> owners.put(owner.getKey(), owner.getValue()));
+        return owners;
+    }
 }
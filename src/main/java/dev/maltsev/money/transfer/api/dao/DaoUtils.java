@@ -2,24 +2,97 @@ package dev.maltsev.money.transfer.api.dao;
 
 import lombok.NoArgsConstructor;
 import org.flywaydb.core.Flyway;
+import org.sql2o.GenericDatasource;
 import org.sql2o.Sql2o;
 import org.sql2o.Sql2oException;
 
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 import static lombok.AccessLevel.PRIVATE;
 
 @NoArgsConstructor(access = PRIVATE)
 public class DaoUtils {
+
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
     public static boolean isUniqueConstraintViolation(Sql2oException e) {
         return e.getMessage() != null && e.getMessage().contains("unique constraint or index violation");
     }
 
+    /**
+     * @return whether the transaction was rolled back by the database to break a deadlock or a serialization conflict
+     */
+    public static boolean isDeadlock(Sql2oException e) {
+        SQLException cause = getSqlException(e);
+        return cause instanceof SQLTransactionRollbackException
+                || cause != null && cause.getSQLState() != null && cause.getSQLState().startsWith("40");
+    }
+
+    /**
+     * @return whether the statement gave up waiting for a lock held by another transaction
+     */
+    public static boolean isLockTimeout(Sql2oException e) {
+        SQLException cause = getSqlException(e);
+        return cause instanceof SQLTimeoutException || cause != null && "55P03".equals(cause.getSQLState());
+    }
+
+    /**
+     * @return whether the connection to the database failed or was lost, so the same statements may succeed on another one
+     */
+    public static boolean isConnectionFailure(Sql2oException e) {
+        SQLException cause = getSqlException(e);
+        return cause instanceof SQLTransientConnectionException || cause instanceof SQLNonTransientConnectionException
+                || cause instanceof SQLRecoverableException
+                || cause != null && cause.getSQLState() != null && cause.getSQLState().startsWith("08");
+    }
+
+    private static SQLException getSqlException(Throwable e) {
+        while (e != null && !(e instanceof SQLException)) {
+            e = e.getCause();
+        }
+        return (SQLException) e;
+    }
+
+    /**
+     * @return the index of every column of the result set by its upper-cased label
+     */
+    static Map<String, Integer> getColumnIndexes(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            columns.put(metaData.getColumnLabel(column).toUpperCase(Locale.ROOT), column);
+        }
+        return columns;
+    }
+
     public static Sql2o setupDatabase() {
+        return setupDatabase(DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * @param statementCacheSize the maximum amount of statements kept prepared per thread and of queries kept parsed, 0 disables caching
+     */
+    public static Sql2o setupDatabase(int statementCacheSize) {
         String url = "jdbc:hsqldb:mem:mymemdb";
         String user = "SA";
         String password = "";
 
         Flyway flyway = Flyway.configure().dataSource(url, user, password).load();
         flyway.migrate();
-        return new Sql2o(url, user, password);
+        if (statementCacheSize <= 0) {
+            return new Sql2o(url, user, password);
+        }
+        GenericDatasource dataSource = new GenericDatasource(url, user, password);
+        Sql2o sql2o = new Sql2o(dataSource, new ParsedSqlCachingQuirks(statementCacheSize));
+        sql2o.setConnectionSource(new StatementCachingConnectionSource(dataSource, statementCacheSize));
+        return sql2o;
     }
 }
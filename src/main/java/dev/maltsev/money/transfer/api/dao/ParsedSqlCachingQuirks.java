@@ -0,0 +1,48 @@
+package dev.maltsev.money.transfer.api.dao;
+
+import org.sql2o.quirks.NoQuirks;
+import org.sql2o.quirks.parameterparsing.SqlParameterParsingStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the queries of the DAOs parsed, so that the named parameters of a query are looked up once rather than every time a query with the
+ * same SQL text is created. Only the given amount of distinct queries is kept, the rest are parsed as usual.
+ */
+public class ParsedSqlCachingQuirks extends NoQuirks {
+
+    private final Map<String, ParsedSql> parsedQueries = new ConcurrentHashMap<>();
+
+    private final SqlParameterParsingStrategy parsingStrategy;
+
+    public ParsedSqlCachingQuirks(int cacheSize) {
+        SqlParameterParsingStrategy delegate = super.getSqlParameterParsingStrategy();
+        parsingStrategy = (sql, parameterIndexes) -> {
+            ParsedSql parsedSql = parsedQueries.get(sql);
+            if (parsedSql == null) {
+                String parsed = delegate.parseSql(sql, parameterIndexes);
+                parsedSql = new ParsedSql(parsed, parameterIndexes.entrySet().stream()
+                        .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> List.copyOf(entry.getValue()))));
+                if (parsedQueries.size() < cacheSize) {
+                    parsedQueries.putIfAbsent(sql, parsedSql);
+                }
+                return parsedSql.sql();
+            }
+            // the indexes are copied as the query rewrites them for the parameters bound to collections
+            parsedSql.parameterIndexes().forEach((name, indexes) -> parameterIndexes.put(name, new ArrayList<>(indexes)));
+            return parsedSql.sql();
+        };
+    }
+
+    @Override
+    public SqlParameterParsingStrategy getSqlParameterParsingStrategy() {
+        return parsingStrategy;
+    }
+
+    private record ParsedSql(String sql, Map<String, List<Integer>> parameterIndexes) {
+    }
+}
@@ -0,0 +1,223 @@
+package dev.maltsev.money.transfer.api.dao;
+
+import org.sql2o.connectionsources.ConnectionSource;
+import org.sql2o.connectionsources.WrappedConnection;
+
+import javax.sql.DataSource;
+import java.lang.ref.Cleaner;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a database connection per thread open along with the statements prepared on it, so that the statements the DAOs execute for every
+ * transaction, e.g. locking and updating it, are prepared once per thread rather than every time. The statements are kept by their SQL
+ * text, up to the given amount per connection, and the least recently used ones are closed first. A statement is taken out of the cache
+ * while it's in use, so the same SQL prepared twice within a database transaction gets a statement of its own.
+ * <p>
+ * A connection requested while the one of the thread is in use, e.g. by a nested database transaction, and a connection requested by a
+ * virtual thread, which doesn't live long enough to reuse it, are opened and closed as usual. The connection of a thread is closed once the
+ * thread is gone.
+ */
+public class StatementCachingConnectionSource implements ConnectionSource {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final DataSource dataSource;
+
+    private final int cacheSize;
+
+    // registered for cleaning once per thread, so reopening the connection of a thread doesn't register it again
+    private final ThreadLocal<ThreadConnection> connections = ThreadLocal.withInitial(() -> {
+        ThreadConnection threadConnection = new ThreadConnection();
+        CLEANER.register(Thread.currentThread(), threadConnection::close);
+        return threadConnection;
+    });
+
+    /**
+     * @param cacheSize the maximum amount of statements kept per connection
+     */
+    public StatementCachingConnectionSource(DataSource dataSource, int cacheSize) {
+        this.dataSource = dataSource;
+        this.cacheSize = cacheSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (Thread.currentThread().isVirtual()) {
+            return dataSource.getConnection();
+        }
+        ThreadConnection threadConnection = connections.get();
+        CachedConnection connection = threadConnection.connection;
+        if (connection == null || connection.connection.isClosed()) {
+            connection = new CachedConnection(dataSource.getConnection(), cacheSize);
+            threadConnection.connection = connection;
+        }
+        return connection.inUse ? dataSource.getConnection() : connection.lease();
+    }
+
+    /**
+     * The current connection of a thread, which is closed by the cleaner once the thread is gone
+     */
+    private static final class ThreadConnection {
+
+        private volatile CachedConnection connection;
+
+        private void close() {
+            CachedConnection current = connection;
+            if (current != null) {
+                current.closeQuietly();
+            }
+        }
+    }
+
+    private static final class CachedConnection {
+
+        private final Connection connection;
+
+        // in the order the statements have been given back, so the eldest one is the least recently used
+        private final Map<String, PreparedStatement> statements;
+
+        private boolean inUse;
+
+        private CachedConnection(Connection connection, int cacheSize) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > cacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private Connection lease() {
+            inUse = true;
+            return new LeasedConnection(this);
+        }
+
+        // a transaction left open by the caller is rolled back, so the next one doesn't inherit its locks
+        private void release() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                closeQuietly();
+            } finally {
+                inUse = false;
+            }
+        }
+
+        private PreparedStatement prepare(String key, StatementFactory factory) throws SQLException {
+            PreparedStatement statement = statements.remove(key);
+            return checkOut(key, statement != null ? statement : factory.prepare());
+        }
+
+        private PreparedStatement checkOut(String key, PreparedStatement statement) {
+            boolean[] closed = {false};
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "close" -> {
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                giveBack(key, statement);
+                            }
+                            yield null;
+                        }
+                        case "isClosed" -> closed[0];
+                        default -> invoke(statement, method, args);
+                    });
+        }
+
+        private void giveBack(String key, PreparedStatement statement) {
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly(statement);
+                return;
+            }
+            if (statements.putIfAbsent(key, statement) != null) {
+                closeQuietly(statement);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // nothing to do with a connection that can't be closed
+            }
+        }
+
+        private static void closeQuietly(PreparedStatement statement) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the statement is dropped anyway
+            }
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * The connection of a thread handed out to a single caller, which gives it back rather than closing it
+     */
+    private static final class LeasedConnection extends WrappedConnection {
+
+        private final CachedConnection cachedConnection;
+
+        private boolean released;
+
+        private LeasedConnection(CachedConnection cachedConnection) {
+            super(cachedConnection.connection);
+            this.cachedConnection = cachedConnection;
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return cachedConnection.prepare(sql, () -> super.prepareStatement(sql));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            return cachedConnection.prepare(autoGeneratedKeys + ":" + sql, () -> super.prepareStatement(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                cachedConnection.release();
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return released || super.isClosed();
+        }
+    }
+
+    @FunctionalInterface
+    private interface StatementFactory {
+
+        PreparedStatement prepare() throws SQLException;
+    }
+}
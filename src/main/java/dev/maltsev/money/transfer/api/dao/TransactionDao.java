@@ -2,6 +2,7 @@ package dev.maltsev.money.transfer.api.dao;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
 import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionKey;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
 import dev.maltsev.money.transfer.api.domain.object.TransactionType;
 import dev.maltsev.money.transfer.api.logging.Loggable;
@@ -9,14 +10,22 @@ import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sql2o.Connection;
+import org.sql2o.Query;
 import org.sql2o.ResultSetHandler;
 import org.sql2o.Sql2oException;
 
-import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import static dev.maltsev.money.transfer.api.dao.TransactionHistoryDao.insertTransactionHistories;
 import static dev.maltsev.money.transfer.api.dao.TransactionHistoryDao.insertTransactionHistory;
 import static lombok.AccessLevel.PRIVATE;
 
@@ -25,6 +34,12 @@ public class TransactionDao implements Loggable {
 
     private static final Logger LOG = LoggerFactory.getLogger(TransactionDao.class);
 
+    private static final String INSERT_TRANSACTION_SQL =
+            "INSERT INTO TRANSACTIONS (ID, REQUEST_ID, PAYER, PAYER_ACCOUNT_NUMBER, RECIPIENT, RECIPIENT_ACCOUNT_NUMBER, " +
+                    "WITHDRAWAL_ADDRESS, AMOUNT, TYPE, STATUS, ERROR_MESSAGE, CREATED, UPDATED) " +
+                    "VALUES (:id, :requestId, :payer, :payerAccountNumber, :recipient, :recipientAccountNumber, :withdrawalAddress, :amount, :type, :status, " +
+                    ":errorMessage, :created, :updated)";
+
     public static String findTransactionIdByRequestIdAndPayer(String requestId, String payer, Connection connection) {
         return connection.createQuery("SELECT ID FROM TRANSACTIONS WHERE REQUEST_ID = :requestId AND PAYER = :payer")
                 .addParameter("requestId", requestId)
@@ -32,6 +47,19 @@ public class TransactionDao implements Loggable {
                 .executeAndFetchFirst((ResultSetHandler<String>) resultSet -> resultSet.getString("ID"));
     }
 
+    public static Map<String, String> findTransactionIdsByRequestIdsAndPayer(Collection<String> requestIds, String payer, Connection connection) {
+        if (requestIds.isEmpty()) {
+            return Map.of();
+        }
+        return connection.createQuery("SELECT ID, REQUEST_ID FROM TRANSACTIONS WHERE REQUEST_ID IN (:requestIds) AND PAYER = :payer")
+                .addParameter("requestIds", requestIds)
+                .addParameter("payer", payer)
+                .executeAndFetch((ResultSetHandler<Map.Entry<String, String>>) resultSet ->
+                        Map.entry(resultSet.getString("REQUEST_ID"), resultSet.getString("ID")))
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
     public static List<Transaction> getAllTransactions(Connection connection) {
         return connection.createQuery("SELECT * FROM TRANSACTIONS")
                 .executeAndFetch(TransactionDao::toTransaction);
@@ -43,6 +71,15 @@ public class TransactionDao implements Loggable {
                 .executeAndFetchFirst(TransactionDao::toTransaction);
     }
 
+    public static List<Transaction> findTransactionsByIds(Collection<String> ids, Connection connection) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return connection.createQuery("SELECT * FROM TRANSACTIONS WHERE ID IN (:ids)")
+                .addParameter("ids", ids)
+                .executeAndFetch(TransactionDao::toTransaction);
+    }
+
     public static String tryInsertTransaction(Transaction transaction, Connection conn) throws TransactionAlreadyExistsException {
         try {
             insertTransaction(transaction, conn);
@@ -58,11 +95,31 @@ public class TransactionDao implements Loggable {
         return transaction.id();
     }
 
+    public static void tryInsertTransactions(Collection<Transaction> transactions, Connection connection) throws TransactionAlreadyExistsException {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        try {
+            Query query = connection.createQuery(INSERT_TRANSACTION_SQL);
+            transactions.forEach(transaction -> bindTransaction(query, transaction).addToBatch());
+            query.executeBatch();
+        } catch (Sql2oException e) {
+            if (DaoUtils.isUniqueConstraintViolation(e)) {
+                LOG.info("One of {} transactions in the batch already exists", transactions.size());
+                throw new TransactionAlreadyExistsException();
+            } else {
+                throw e;
+            }
+        }
+        insertTransactionHistories(transactions, connection);
+    }
+
     private static void insertTransaction(Transaction transaction, Connection connection) {
-        connection.createQuery("INSERT INTO TRANSACTIONS (ID, REQUEST_ID, PAYER, PAYER_ACCOUNT_NUMBER, RECIPIENT, RECIPIENT_ACCOUNT_NUMBER, " +
-                        "WITHDRAWAL_ADDRESS, AMOUNT, TYPE, STATUS, ERROR_MESSAGE, CREATED, UPDATED) " +
-                        "VALUES (:id, :requestId, :payer, :payerAccountNumber, :recipient, :recipientAccountNumber, :withdrawalAddress, :amount, :type, :status, " +
-                        ":errorMessage, :created, :updated)")
+        bindTransaction(connection.createQuery(INSERT_TRANSACTION_SQL), transaction).executeUpdate();
+    }
+
+    private static Query bindTransaction(Query query, Transaction transaction) {
+        return query
                 .addParameter("id", transaction.id())
                 .addParameter("requestId", transaction.requestId())
                 .addParameter("payer", transaction.payer())
@@ -75,8 +132,7 @@ public class TransactionDao implements Loggable {
                 .addParameter("status", transaction.status())
                 .addParameter("errorMessage", transaction.errorMessage())
                 .addParameter("created", transaction.created())
-                .addParameter("updated", transaction.updated())
-                .executeUpdate();
+                .addParameter("updated", transaction.updated());
     }
 
     public static Transaction lockTransactionById(String transactionId, Connection connection) {
@@ -85,6 +141,44 @@ public class TransactionDao implements Loggable {
                 .executeAndFetchFirst(TransactionDao::toTransaction);
     }
 
+    /**
+     * Locks the transactions in the order of their IDs, so that concurrent callers locking overlapping sets don't deadlock.
+     */
+    public static List<Transaction> lockTransactionsByIds(Collection<String> transactionIds, Connection connection) {
+        if (transactionIds.isEmpty()) {
+            return List.of();
+        }
+        return connection.createQuery("SELECT * FROM TRANSACTIONS WHERE ID IN (:transactionIds) ORDER BY ID FOR UPDATE")
+                .addParameter("transactionIds", transactionIds)
+                .executeAndFetch(TransactionDao::toTransaction);
+    }
+
+    /**
+     * Locks the transaction reading its status only, for a transaction whose other columns are already known and can't change.
+     */
+    public static TransactionStatus lockTransactionStatusById(String transactionId, Connection connection) {
+        return connection.createQuery("SELECT STATUS FROM TRANSACTIONS WHERE ID = :transactionId FOR UPDATE")
+                .addParameter("transactionId", transactionId)
+                .executeAndFetchFirst(TransactionStatus.class);
+    }
+
+    /**
+     * Locks the transactions in the order of their IDs reading their statuses only, for transactions whose other columns are already known.
+     *
+     * @return the status by ID of every existing transaction
+     */
+    public static Map<String, TransactionStatus> lockTransactionStatusesByIds(Collection<String> transactionIds, Connection connection) {
+        if (transactionIds.isEmpty()) {
+            return Map.of();
+        }
+        return connection.createQuery("SELECT ID, STATUS FROM TRANSACTIONS WHERE ID IN (:transactionIds) ORDER BY ID FOR UPDATE")
+                .addParameter("transactionIds", transactionIds)
+                .executeAndFetch((ResultSetHandler<Map.Entry<String, TransactionStatus>>) resultSet ->
+                        Map.entry(resultSet.getString("ID"), TransactionStatus.valueOf(resultSet.getString("STATUS"))))
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
     public static TransactionStatus getTransactionStatus(String transactionId, String payer, Connection connection) {
         return connection.createQuery("SELECT STATUS FROM TRANSACTIONS WHERE ID = :transactionId AND PAYER = :payer")
                 .addParameter("transactionId", transactionId)
@@ -92,28 +186,84 @@ public class TransactionDao implements Loggable {
                 .executeAndFetchFirst(TransactionStatus.class);
     }
 
-    private static Transaction toTransaction(ResultSet resultSet) throws SQLException {
-        return new Transaction(
-                resultSet.getString("id"),
-                resultSet.getString("request_id"),
-                resultSet.getString("payer"),
-                resultSet.getString("payer_account_number"),
-                resultSet.getString("recipient"),
-                resultSet.getString("recipient_account_number"),
-                resultSet.getString("withdrawal_address"),
-                new Money(resultSet.getBigDecimal("amount")),
-                TransactionType.valueOf(resultSet.getString("type")),
-                TransactionStatus.valueOf(resultSet.getString("status")),
-                resultSet.getString("error_message"),
-                resultSet.getTimestamp("created").toLocalDateTime(),
-                resultSet.getTimestamp("updated").toLocalDateTime()
+    /**
+     * Resolves the indexes of the transaction columns once per result set, so the rows are read by index rather than looking every column
+     * up by its name.
+     */
+    static ResultSetHandler<Transaction> toTransaction(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int id = columns.get("ID");
+        int requestId = columns.get("REQUEST_ID");
+        int payer = columns.get("PAYER");
+        int payerAccountNumber = columns.get("PAYER_ACCOUNT_NUMBER");
+        int recipient = columns.get("RECIPIENT");
+        int recipientAccountNumber = columns.get("RECIPIENT_ACCOUNT_NUMBER");
+        int withdrawalAddress = columns.get("WITHDRAWAL_ADDRESS");
+        int amount = columns.get("AMOUNT");
+        int type = columns.get("TYPE");
+        int status = columns.get("STATUS");
+        int errorMessage = columns.get("ERROR_MESSAGE");
+        int created = columns.get("CREATED");
+        int updated = columns.get("UPDATED");
+        return resultSet -> new Transaction(
+                resultSet.getString(id),
+                resultSet.getString(requestId),
+                resultSet.getString(payer),
+                resultSet.getString(payerAccountNumber),
+                resultSet.getString(recipient),
+                resultSet.getString(recipientAccountNumber),
+                resultSet.getString(withdrawalAddress),
+                new Money(resultSet.getBigDecimal(amount)),
+                TransactionType.valueOf(resultSet.getString(type)),
+                TransactionStatus.valueOf(resultSet.getString(status)),
+                resultSet.getString(errorMessage),
+                resultSet.getTimestamp(created).toLocalDateTime(),
+                resultSet.getTimestamp(updated).toLocalDateTime()
         );
     }
 
-    public static List<Transaction> getAllStuckTransactions(Connection connection) {
-        return connection.createQuery("SELECT * FROM TRANSACTIONS WHERE STATUS = 'PROCESSING' AND UPDATED < :timestamp")
-                .addParameter("timestamp", LocalDateTime.now().minusMinutes(1))
-                .executeAndFetch(TransactionDao::toTransaction);
+    /**
+     * Reads a page of the transactions of the type that have been in the status since before the time, in the order of {@link TransactionKey}. Awaiting
+     * transactions that are still in the withdrawal outbox are skipped.
+     *
+     * @param after the last transaction of the previous page, null for the first page
+     */
+    public static List<TransactionKey> getStuckTransactionKeys(TransactionType type, TransactionStatus status, LocalDateTime updatedBefore,
+                                                               TransactionKey after, int limit, Connection connection) {
+        return connection.createQuery("SELECT UPDATED, ID FROM TRANSACTIONS WHERE STATUS = :status AND UPDATED < :updatedBefore " +
+                        "AND TYPE = :type AND (UPDATED > :afterUpdated OR UPDATED = :afterUpdated AND ID > :afterId) " +
+                        "AND ID NOT IN (SELECT ID FROM WITHDRAWAL_OUTBOX) ORDER BY UPDATED, ID LIMIT :limit")
+                .addParameter("status", status)
+                .addParameter("updatedBefore", updatedBefore)
+                .addParameter("type", type)
+                .addParameter("afterUpdated", after != null ? after.updated() : LocalDateTime.of(1970, 1, 1, 0, 0))
+                .addParameter("afterId", after != null ? after.id() : "00000000-0000-0000-0000-000000000000")
+                .addParameter("limit", limit)
+                .executeAndFetch((ResultSetHandler<TransactionKey>) resultSet ->
+                        new TransactionKey(resultSet.getTimestamp("UPDATED").toLocalDateTime(), resultSet.getString("ID")));
+    }
+
+    /**
+     * @return the time of the next check by ID of every awaiting transaction that has been sent already, null if it should be checked as
+     * soon as possible
+     */
+    public static Map<String, LocalDateTime> getAwaitingTransactionChecks(Connection connection) {
+        Map<String, LocalDateTime> checks = new LinkedHashMap<>();
+        connection.createQuery("SELECT ID, NEXT_CHECK_AT FROM TRANSACTIONS WHERE STATUS = 'AWAITING' " +
+                        "AND ID NOT IN (SELECT ID FROM WITHDRAWAL_OUTBOX)")
+                .executeAndFetch((ResultSetHandler<Map.Entry<String, Timestamp>>) resultSet ->
+                        new AbstractMap.SimpleImmutableEntry<>(resultSet.getString("ID"), resultSet.getTimestamp("NEXT_CHECK_AT")))
+                .forEach(check -> checks.put(check.getKey(), check.getValue() != null ? check.getValue().toLocalDateTime() : null));
+        return checks;
+    }
+
+    public static void updateNextCheckAt(Map<String, LocalDateTime> nextChecks, Connection connection) {
+        if (nextChecks.isEmpty()) {
+            return;
+        }
+        Query query = connection.createQuery("UPDATE TRANSACTIONS SET NEXT_CHECK_AT = :nextCheckAt WHERE ID = :id AND STATUS = 'AWAITING'");
+        nextChecks.forEach((id, nextCheckAt) -> query.addParameter("id", id).addParameter("nextCheckAt", nextCheckAt).addToBatch());
+        query.executeBatch();
     }
 
     public static void updateTransaction(Transaction transaction, Connection connection) {
@@ -126,6 +276,22 @@ public class TransactionDao implements Loggable {
         insertTransactionHistory(transaction, connection);
     }
 
+    public static void updateTransactions(Collection<Transaction> transactions, Connection connection) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        Query query = connection.createQuery(
+                "UPDATE TRANSACTIONS SET STATUS = :status, ERROR_MESSAGE = :errorMessage, UPDATED = :updated WHERE ID = :id");
+        transactions.forEach(transaction -> query
+                .addParameter("id", transaction.id())
+                .addParameter("status", transaction.status())
+                .addParameter("errorMessage", transaction.errorMessage())
+                .addParameter("updated", transaction.updated())
+                .addToBatch());
+        query.executeBatch();
+        insertTransactionHistories(transactions, connection);
+    }
+
     public static class TransactionAlreadyExistsException extends Exception {
     }
 }
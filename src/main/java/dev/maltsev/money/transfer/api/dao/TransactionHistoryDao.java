@@ -6,16 +6,22 @@ import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
 import dev.maltsev.money.transfer.api.logging.Loggable;
 import lombok.NoArgsConstructor;
 import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.ResultSetHandler;
 
-import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import static lombok.AccessLevel.PRIVATE;
 
 @NoArgsConstructor(access = PRIVATE)
 public class TransactionHistoryDao implements Loggable {
 
+    private static final String INSERT_TRANSACTION_HISTORY_SQL = "INSERT INTO TRANSACTION_HISTORY (ID, STATUS, TIMESTAMP) VALUES (:id, :status, :timestamp)";
+
     public static List<TransactionHistory> findAllTransactionHistoriesById(String id, Connection connection) {
         return connection.createQuery("SELECT * FROM TRANSACTION_HISTORY WHERE ID = :id")
                 .addParameter("id", id)
@@ -28,18 +34,33 @@ public class TransactionHistoryDao implements Loggable {
     }
 
     public static void insertTransactionHistory(Transaction transaction, Connection connection) {
-        connection.createQuery("INSERT INTO TRANSACTION_HISTORY (ID, STATUS, TIMESTAMP) VALUES (:id, :status, :timestamp)")
+        bindTransactionHistory(connection.createQuery(INSERT_TRANSACTION_HISTORY_SQL), transaction).executeUpdate();
+    }
+
+    public static void insertTransactionHistories(Collection<Transaction> transactions, Connection connection) {
+        if (!transactions.isEmpty()) {
+            Query query = connection.createQuery(INSERT_TRANSACTION_HISTORY_SQL);
+            transactions.forEach(transaction -> bindTransactionHistory(query, transaction).addToBatch());
+            query.executeBatch();
+        }
+    }
+
+    private static Query bindTransactionHistory(Query query, Transaction transaction) {
+        return query
                 .addParameter("id", transaction.id())
                 .addParameter("status", transaction.status())
-                .addParameter("timestamp", transaction.updated())
-                .executeUpdate();
+                .addParameter("timestamp", transaction.updated());
     }
 
-    private static TransactionHistory toTransactionHistory(ResultSet resultSet) throws SQLException {
-        return new TransactionHistory(
-                resultSet.getString("ID"),
-                TransactionStatus.valueOf(resultSet.getString("STATUS")),
-                resultSet.getTimestamp("TIMESTAMP").toLocalDateTime()
+    private static ResultSetHandler<TransactionHistory> toTransactionHistory(ResultSetMetaData metaData) throws SQLException {
+        Map<String, Integer> columns = DaoUtils.getColumnIndexes(metaData);
+        int id = columns.get("ID");
+        int status = columns.get("STATUS");
+        int timestamp = columns.get("TIMESTAMP");
+        return resultSet -> new TransactionHistory(
+                resultSet.getString(id),
+                TransactionStatus.valueOf(resultSet.getString(status)),
+                resultSet.getTimestamp(timestamp).toLocalDateTime()
         );
     }
 }
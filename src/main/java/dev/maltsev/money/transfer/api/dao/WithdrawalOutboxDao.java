@@ -0,0 +1,66 @@
+package dev.maltsev.money.transfer.api.dao;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.entity.WithdrawalOutboxEntry;
+import lombok.NoArgsConstructor;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.ResultSetHandler;
+import org.sql2o.ResultSetHandlerFactory;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static lombok.AccessLevel.PRIVATE;
+
+@NoArgsConstructor(access = PRIVATE)
+public class WithdrawalOutboxDao {
+
+    public static void insertOutboxEntry(String transactionId, Connection connection) {
+        connection.createQuery("INSERT INTO WITHDRAWAL_OUTBOX (ID, NEXT_ATTEMPT_AT) VALUES (:id, :nextAttemptAt)")
+                .addParameter("id", transactionId)
+                .addParameter("nextAttemptAt", LocalDateTime.now())
+                .executeUpdate();
+    }
+
+    /**
+     * @return the entries whose next attempt is due, the earliest ones first, along with their transactions
+     */
+    public static List<WithdrawalOutboxEntry> getDueOutboxEntries(int limit, Connection connection) {
+        return connection.createQuery("SELECT T.*, O.ATTEMPTS FROM WITHDRAWAL_OUTBOX O JOIN TRANSACTIONS T ON T.ID = O.ID " +
+                        "WHERE O.NEXT_ATTEMPT_AT <= :now ORDER BY O.NEXT_ATTEMPT_AT LIMIT :limit")
+                .addParameter("now", LocalDateTime.now())
+                .addParameter("limit", limit)
+                .executeAndFetch((ResultSetHandlerFactory<WithdrawalOutboxEntry>) metaData -> {
+                    ResultSetHandler<Transaction> transaction = TransactionDao.toTransaction(metaData);
+                    int attempts = DaoUtils.getColumnIndexes(metaData).get("ATTEMPTS");
+                    return resultSet -> new WithdrawalOutboxEntry(transaction.handle(resultSet), resultSet.getInt(attempts));
+                });
+    }
+
+    public static void deleteOutboxEntries(Collection<String> transactionIds, Connection connection) {
+        if (transactionIds.isEmpty()) {
+            return;
+        }
+        connection.createQuery("DELETE FROM WITHDRAWAL_OUTBOX WHERE ID IN (:ids)")
+                .addParameter("ids", transactionIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Counts a failed attempt of every entry and postpones its next one.
+     *
+     * @param nextAttempts the time of the next attempt by transaction ID
+     */
+    public static void postponeOutboxEntries(Map<String, LocalDateTime> nextAttempts, Connection connection) {
+        if (nextAttempts.isEmpty()) {
+            return;
+        }
+        Query query = connection.createQuery(
+                "UPDATE WITHDRAWAL_OUTBOX SET ATTEMPTS = ATTEMPTS + 1, NEXT_ATTEMPT_AT = :nextAttemptAt WHERE ID = :id");
+        nextAttempts.forEach((id, nextAttemptAt) -> query.addParameter("id", id).addParameter("nextAttemptAt", nextAttemptAt).addToBatch());
+        query.executeBatch();
+    }
+}
@@ -55,7 +55,7 @@ public final class Transaction {
         this.updated = updated;
     }
 
-    public Transaction fail(Exception e) {
+    public Transaction fail(Throwable e) {
         status = TransactionStatus.FAILED;
         errorMessage = ExceptionUtils.getStackTrace(e);
         updated = LocalDateTime.now();
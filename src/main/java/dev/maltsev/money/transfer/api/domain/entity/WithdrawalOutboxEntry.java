@@ -0,0 +1,27 @@
+package dev.maltsev.money.transfer.api.domain.entity;
+
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * A withdrawal transaction that is debited and waits to be sent to the external service, along with the amount of failed attempts
+ */
+@ToString
+@SuppressWarnings("ClassCanBeRecord")
+public final class WithdrawalOutboxEntry {
+    private final Transaction transaction;
+    private final int attempts;
+
+    public WithdrawalOutboxEntry(@NonNull Transaction transaction, int attempts) {
+        this.transaction = transaction;
+        this.attempts = attempts;
+    }
+
+    public Transaction transaction() {
+        return transaction;
+    }
+
+    public int attempts() {
+        return attempts;
+    }
+}
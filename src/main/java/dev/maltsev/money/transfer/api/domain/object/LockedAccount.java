@@ -0,0 +1,59 @@
+package dev.maltsev.money.transfer.api.domain.object;
+
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+
+/**
+ * State of an account locked for a transaction, read along with whether the account belongs to the customer it's used by
+ */
+@ToString
+@EqualsAndHashCode
+@SuppressWarnings("ClassCanBeRecord")
+public final class LockedAccount {
+
+    private final String number;
+    private final BigDecimal balance;
+    private final BigDecimal stripesBalance;
+    private final int stripes;
+    private final String owner;
+
+    /**
+     * @param balance        the balance of the account itself, without its stripes
+     * @param stripesBalance the sum of the balances of its stripes
+     * @param owner          the login of the customer the account is used by, null if the account doesn't belong to them
+     */
+    public LockedAccount(@NonNull String number, @NonNull BigDecimal balance, @NonNull BigDecimal stripesBalance, int stripes,
+                         String owner) {
+        this.number = number;
+        this.balance = balance;
+        this.stripesBalance = stripesBalance;
+        this.stripes = stripes;
+        this.owner = owner;
+    }
+
+    public String number() {
+        return number;
+    }
+
+    public BigDecimal balance() {
+        return balance;
+    }
+
+    /**
+     * @return the balance of the account including its stripes
+     */
+    public BigDecimal totalBalance() {
+        return balance.add(stripesBalance);
+    }
+
+    public int stripes() {
+        return stripes;
+    }
+
+    public String owner() {
+        return owner;
+    }
+}
@@ -0,0 +1,32 @@
+package dev.maltsev.money.transfer.api.domain.object;
+
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * Position of a transaction in the order of the time of its last update and then its ID, which pages of transactions are read in
+ */
+@ToString
+@EqualsAndHashCode
+@SuppressWarnings("ClassCanBeRecord")
+public final class TransactionKey {
+
+    private final LocalDateTime updated;
+    private final String id;
+
+    public TransactionKey(@NonNull LocalDateTime updated, @NonNull String id) {
+        this.updated = updated;
+        this.id = id;
+    }
+
+    public LocalDateTime updated() {
+        return updated;
+    }
+
+    public String id() {
+        return id;
+    }
+}
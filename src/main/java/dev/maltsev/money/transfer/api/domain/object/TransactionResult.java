@@ -0,0 +1,67 @@
+package dev.maltsev.money.transfer.api.domain.object;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import lombok.ToString;
+
+/**
+ * Outcome of a single item of a batch operation: either the ID of the transaction or the reason it couldn't be created. A transaction
+ * created by the operation itself is kept as well, so it can be handed over for execution without loading it again.
+ */
+@ToString
+@EqualsAndHashCode
+@SuppressWarnings("ClassCanBeRecord")
+public final class TransactionResult {
+
+    private final String transactionId;
+    private final String errorMessage;
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final Transaction createdTransaction;
+
+    private TransactionResult(String transactionId, String errorMessage, Transaction createdTransaction) {
+        this.transactionId = transactionId;
+        this.errorMessage = errorMessage;
+        this.createdTransaction = createdTransaction;
+    }
+
+    public static TransactionResult success(@NonNull String transactionId) {
+        return new TransactionResult(transactionId, null, null);
+    }
+
+    public static TransactionResult created(@NonNull Transaction transaction) {
+        return new TransactionResult(transaction.id(), null, transaction);
+    }
+
+    /**
+     * @param transactionId the ID returned by the creation of the transaction, which is the ID of the transaction itself unless it
+     *                      already existed
+     */
+    public static TransactionResult of(@NonNull Transaction transaction, @NonNull String transactionId) {
+        return transactionId.equals(transaction.id()) ? created(transaction) : success(transactionId);
+    }
+
+    public static TransactionResult failure(@NonNull String errorMessage) {
+        return new TransactionResult(null, errorMessage, null);
+    }
+
+    public boolean succeeded() {
+        return transactionId != null;
+    }
+
+    public String transactionId() {
+        return transactionId;
+    }
+
+    public String errorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return the transaction if it has been created by the operation, null if it had existed before or couldn't be created
+     */
+    public Transaction createdTransaction() {
+        return createdTransaction;
+    }
+}
@@ -11,4 +11,11 @@ public enum TransactionStatus {
     FAILED("Transaction could not be processed due to an error");
 
     private final String description;
+
+    /**
+     * @return true if the transaction is not going to change its status anymore
+     */
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
 }
\ No newline at end of file
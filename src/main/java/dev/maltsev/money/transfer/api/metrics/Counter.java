@@ -0,0 +1,19 @@
+package dev.maltsev.money.transfer.api.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count of events.
+ */
+public final class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,52 @@
+package dev.maltsev.money.transfer.api.metrics;
+
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static lombok.AccessLevel.PRIVATE;
+
+/**
+ * Application-wide registry of named metrics. Getting a counter or a timer by a name that is already registered returns the existing one,
+ * while registering a gauge with an existing name replaces it.
+ */
+@NoArgsConstructor(access = PRIVATE)
+public class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, key -> new Timer());
+    }
+
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @return current values of all metrics sorted by name, timers are expanded into their count, mean, max and total in milliseconds
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> snapshot.put(name, counter.count()));
+        GAUGES.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        TIMERS.forEach((name, timer) -> {
+            snapshot.put(name + ".count", timer.count());
+            snapshot.put(name + ".meanMs", timer.meanMillis());
+            snapshot.put(name + ".maxMs", timer.maxMillis());
+            snapshot.put(name + ".totalMs", timer.totalMillis());
+        });
+        return snapshot;
+    }
+}
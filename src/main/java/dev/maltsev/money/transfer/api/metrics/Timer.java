@@ -0,0 +1,40 @@
+package dev.maltsev.money.transfer.api.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, total and maximum of recorded durations.
+ */
+public final class Timer {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double totalMillis() {
+        return totalNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double maxMillis() {
+        return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double meanMillis() {
+        long count = count();
+        return count == 0 ? 0 : totalMillis() / count;
+    }
+}
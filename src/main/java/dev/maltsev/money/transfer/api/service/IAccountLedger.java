@@ -0,0 +1,38 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.service.exception.InvalidTransactionException;
+
+import java.util.Collection;
+
+/**
+ * Account balances kept by a transfer engine rather than the database, which the withdrawals have to be debited from and refunded to as
+ * well, so that the engine decides on the funds of an account taking them into account.
+ */
+public interface IAccountLedger {
+
+    IAccountLedger NONE = new IAccountLedger() {
+        @Override
+        public boolean debitWithdrawal(Transaction transaction) {
+            return false;
+        }
+
+        @Override
+        public void refundWithdrawals(Collection<Transaction> transactions) {
+        }
+    };
+
+    /**
+     * Validates the withdrawal against the balance kept by the ledger and debits it. The database still has to be debited by the same
+     * amount, without checking the balance there, as it lags behind the ledger.
+     *
+     * @return whether the payer account has been debited, false if the balances are kept by the database alone
+     * @throws InvalidTransactionException if the account doesn't belong to the payer or doesn't cover the amount
+     */
+    boolean debitWithdrawal(Transaction transaction) throws InvalidTransactionException;
+
+    /**
+     * Credits the payer accounts of the withdrawals back, once the refunds have been committed to the database.
+     */
+    void refundWithdrawals(Collection<Transaction> transactions);
+}
@@ -1,8 +1,11 @@
 package dev.maltsev.money.transfer.api.service;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
 
+import java.util.List;
+
 
 /**
  * Operations for handling transactions
@@ -18,6 +21,14 @@ public interface ICommandService {
      */
     String createTransaction(Transaction transaction);
 
+    /**
+     * Creates new transactions within a single database transaction, keeping every one of them idempotent.
+     *
+     * @param transactions the transactions to be created
+     * @return the results of the creation in the same order as the given transactions
+     */
+    List<TransactionResult> createTransactions(List<Transaction> transactions);
+
     /**
      * Executes a transaction.
      *
@@ -25,4 +36,12 @@ public interface ICommandService {
      * @return the status of the executed transaction
      */
     TransactionStatus executeTransaction(String transactionId);
+
+    /**
+     * Executes a transaction that has been created or loaded before, reading only its current status from the database.
+     *
+     * @param transaction the transaction to be executed, its status is updated to the current one
+     * @return the status of the executed transaction
+     */
+    TransactionStatus executeTransaction(Transaction transaction);
 }
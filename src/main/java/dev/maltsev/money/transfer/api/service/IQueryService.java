@@ -1,10 +1,13 @@
 package dev.maltsev.money.transfer.api.service;
 
-import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionKey;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
 import dev.maltsev.money.transfer.api.service.exception.UnknownTransactionException;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Read-only operations for transactions
@@ -21,9 +24,20 @@ public interface IQueryService {
     TransactionStatus getTransactionStatus(String transactionId, String payer) throws UnknownTransactionException;
 
     /**
-     * Returns all transactions that are stuck in the PROCESSING state.
+     * Returns a page of transactions of the type that have been stuck in the status since before the given time, in the order of the time of their last
+     * update and then ID. Awaiting transactions that haven't been sent to the external service yet are left to the withdrawal outbox.
      *
-     * @return the list of stuck transactions
+     * @param after the last transaction of the previous page, null for the first page
+     * @param limit the maximum size of the page
+     * @return the page of stuck transactions, smaller than the limit if it's the last one
      */
-    List<Transaction> getAllStuckTransactions();
+    List<TransactionKey> getStuckTransactions(TransactionType type, TransactionStatus status, LocalDateTime updatedBefore, TransactionKey after,
+                                              int limit);
+
+    /**
+     * Returns the time of the next check of every transaction awaiting its withdrawal.
+     *
+     * @return the time of the next check by transaction ID, null if the transaction should be checked as soon as possible
+     */
+    Map<String, LocalDateTime> getAwaitingTransactionChecks();
 }
@@ -0,0 +1,19 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+
+/**
+ * Receives transactions whose status has changed, once the change has been committed together with its history record.
+ */
+public interface ITransactionListener {
+
+    ITransactionListener NONE = transaction -> {
+    };
+
+    /**
+     * Called for a created transaction and for every status transition of it.
+     *
+     * @param transaction the transaction with its new status
+     */
+    void onStatusChanged(Transaction transaction);
+}
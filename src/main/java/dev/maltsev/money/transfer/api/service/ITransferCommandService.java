@@ -0,0 +1,57 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operations for handling transfer transactions, which are executed entirely within the database
+ */
+public interface ITransferCommandService extends ICommandService {
+
+    /**
+     * Creates a transfer and executes it right away, within the same database transaction where possible. A repeated request isn't
+     * created again, the existing transaction is executed instead unless it's processed already.
+     *
+     * @param transaction the transaction to be created
+     * @return the created or the existing transaction with its current status, which is still PROCESSING if it couldn't be executed
+     * right away, e.g. due to lock conflicts
+     */
+    Transaction createAndExecuteTransaction(Transaction transaction);
+
+    /**
+     * Executes transfers together, in a single database transaction with batched statements, in the given order. If any of them can't be
+     * executed, e.g. due to insufficient funds, the batch is rolled back and the transfers are executed one by one instead, so that only
+     * that one fails.
+     *
+     * @param transactionIds the IDs of the transactions to execute
+     * @return the status by ID of every given transaction, null if the transaction doesn't exist
+     */
+    Map<String, TransactionStatus> executeTransactions(List<String> transactionIds);
+
+    /**
+     * Executes transfers that have been created or loaded before together, as {@link #executeTransactions(List)} does, reading only their
+     * current statuses from the database.
+     *
+     * @param transactions the transactions to execute, their statuses are updated to the current ones
+     * @return the status by ID of every given transaction, null if the transaction doesn't exist
+     */
+    Map<String, TransactionStatus> executeCreatedTransactions(List<Transaction> transactions);
+
+    /**
+     * Splits the balances of the accounts into stripes taking their credits, so that the credits of an account receiving many transfers
+     * don't wait for each other. The balance of a striped account is its own balance plus the balances of its stripes. Accounts striped
+     * already get more stripes if they have less.
+     *
+     * @return the numbers of the accounts which exist and are striped now
+     */
+    List<String> stripeAccounts(Collection<String> accountNumbers, int stripes);
+
+    /**
+     * Folds the balances of the stripes of every striped account back into the account.
+     */
+    void compactAccountStripes();
+}
@@ -0,0 +1,52 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operations for handling withdrawal transactions, which are sent to the external withdrawal service through an outbox once debited and
+ * wait for it then
+ */
+public interface IWithdrawCommandService extends ICommandService {
+
+    /**
+     * Sends the withdrawals of the outbox whose attempt is due to the external service, all of them at once, and waits for the service to
+     * respond. A withdrawal that fails to be sent is retried later. Once it fails the maximum amount of times, the service is asked for its
+     * state, as the send might have reached it anyway: the payer is refunded and the transaction fails only if the service doesn't know
+     * the withdrawal, and it's sent again later if the service can't tell. Sending a withdrawal again is harmless, as the service
+     * deduplicates them by ID.
+     *
+     * @param batchSize the maximum amount of withdrawals to send
+     * @return the IDs of the transactions whose withdrawals have been sent, including the ones found known to the service
+     */
+    List<String> dispatchWithdrawals(int batchSize);
+
+    /**
+     * Checks the state of the withdrawal of an awaiting transaction with the external service. The transaction is locked and completed or
+     * failed only once the withdrawal is final.
+     *
+     * @param transactionId the ID of the awaiting transaction
+     * @return AWAITING if the withdrawal is still in progress or its state is unknown, the status of the transaction otherwise
+     */
+    TransactionStatus checkTransaction(String transactionId);
+
+    /**
+     * Checks the states of the withdrawals of awaiting transactions with a single call to the external service. The transactions whose
+     * withdrawals are final are completed or failed together, in a single database transaction.
+     *
+     * @param transactionIds the IDs of the awaiting transactions
+     * @return the status by ID of every given transaction, as {@link #checkTransaction(String)} returns it
+     */
+    Map<String, TransactionStatus> checkTransactions(Collection<String> transactionIds);
+
+    /**
+     * Saves the time of the next check of awaiting transactions, the transactions that are not awaiting anymore are skipped.
+     *
+     * @param nextChecks the time of the next check by transaction ID
+     */
+    void saveNextChecks(Map<String, LocalDateTime> nextChecks);
+}
@@ -0,0 +1,16 @@
+package dev.maltsev.money.transfer.api.service;
+
+/**
+ * Defines where transfers are executed.
+ */
+public enum TransferEngine {
+    /**
+     * In the database, each transfer or batch of transfers in a database transaction locking the involved accounts.
+     */
+    DATABASE,
+    /**
+     * In memory, by a single-threaded ledger engine keeping the balances, which persists the executed transfers to the database
+     * asynchronously. The engine decides on the balances, so withdrawals are debited and refunded through it as well.
+     */
+    LEDGER
+}
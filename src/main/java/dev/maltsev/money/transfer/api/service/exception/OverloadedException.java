@@ -0,0 +1,21 @@
+package dev.maltsev.money.transfer.api.service.exception;
+
+/**
+ * Thrown when a workload has reached its limit of work in progress and doesn't accept more for now.
+ */
+public class OverloadedException extends Exception {
+
+    private final long retryAfterSeconds;
+
+    public OverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the estimated time after which the workload is expected to accept more work
+     */
+    public long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
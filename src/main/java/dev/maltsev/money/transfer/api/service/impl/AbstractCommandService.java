@@ -1,24 +1,53 @@
 package dev.maltsev.money.transfer.api.service.impl;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
 import org.sql2o.Connection;
 import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static dev.maltsev.money.transfer.api.dao.TransactionDao.*;
 
 public abstract class AbstractCommandService extends AbstractService {
 
-    public AbstractCommandService(Sql2o sql) {
+    private final ITransactionListener transactionListener;
+
+    protected final IdempotencyCache idempotencyCache;
+
+    public AbstractCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache) {
         super(sql);
+        this.transactionListener = transactionListener;
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    // Must be called after the status change is committed, a failing listener doesn't affect the transaction
+    protected void notifyStatusChanged(Transaction transaction) {
+        try {
+            transactionListener.onStatusChanged(transaction);
+        } catch (Exception e) {
+            logger().error("Failed to notify about status {} of transaction with id = '{}'", transaction.status(), transaction.id(), e);
+        }
     }
 
     protected String insertTransaction(Transaction transaction) {
+        String cachedTransactionId = idempotencyCache.get(transaction.requestId(), transaction.payer());
+        if (cachedTransactionId != null) {
+            logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(), transaction.payer());
+            return cachedTransactionId;
+        }
         try (Connection connection = sql.beginTransaction()) {
             String transactionId = findTransactionIdByRequestIdAndPayer(transaction.requestId(), transaction.payer(), connection);
             if (transactionId == null) {
                 try {
                     transactionId = tryInsertTransaction(transaction, connection);
                     connection.commit();
+                    notifyStatusChanged(transaction);
                 } catch (TransactionAlreadyExistsException e) {
                     // just ignore and return existing transaction id as it is considered to be idempotent
                     logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(), transaction.payer());
@@ -27,7 +56,68 @@ public abstract class AbstractCommandService extends AbstractService {
             } else {
                 logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(), transaction.payer());
             }
+            // either committed above or found committed by another request
+            idempotencyCache.put(transaction.requestId(), transaction.payer(), transactionId);
             return transactionId;
         }
     }
+
+    protected List<TransactionResult> insertTransactions(List<Transaction> transactions) {
+        try (Connection connection = sql.beginTransaction()) {
+            // requestId -> transactionId per payer, covering both already saved transactions and the ones repeated within the batch
+            Map<String, Map<String, String>> transactionIdsByPayer = new HashMap<>();
+            List<Transaction> newTransactions = new ArrayList<>();
+            List<TransactionResult> results = new ArrayList<>(transactions.size());
+            // the transactions unknown to the cache, by position, which are the only ones to be put into it
+            boolean[] missed = new boolean[transactions.size()];
+
+            for (Transaction transaction : transactions) {
+                String transactionId = idempotencyCache.get(transaction.requestId(), transaction.payer());
+                if (transactionId != null) {
+                    logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(), transaction.payer());
+                    results.add(TransactionResult.success(transactionId));
+                    continue;
+                }
+                missed[results.size()] = true;
+                // looked up only for the payers having requests unknown to the cache
+                Map<String, String> transactionIds = transactionIdsByPayer.computeIfAbsent(transaction.payer(),
+                        payer -> new HashMap<>(findTransactionIdsByRequestIdsAndPayer(getRequestIds(transactions, payer), payer, connection)));
+                transactionId = transactionIds.putIfAbsent(transaction.requestId(), transaction.id());
+                if (transactionId == null) {
+                    newTransactions.add(transaction);
+                    results.add(TransactionResult.created(transaction));
+                } else {
+                    logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(), transaction.payer());
+                    results.add(TransactionResult.success(transactionId));
+                }
+            }
+
+            tryInsertTransactions(newTransactions, connection);
+            connection.commit();
+            newTransactions.forEach(this::notifyStatusChanged);
+            for (int i = 0; i < transactions.size(); i++) {
+                if (missed[i]) {
+                    idempotencyCache.put(transactions.get(i).requestId(), transactions.get(i).payer(), results.get(i).transactionId());
+                }
+            }
+            return results;
+        } catch (TransactionAlreadyExistsException | Sql2oException e) {
+            // a concurrent request has inserted one of the transactions or one of them is broken, so isolate them from each other
+            logger().info("Failed to insert {} transactions in a batch, inserting them one by one", transactions.size());
+            return transactions.stream().map(this::tryInsertTransactionSeparately).toList();
+        }
+    }
+
+    private TransactionResult tryInsertTransactionSeparately(Transaction transaction) {
+        try {
+            return TransactionResult.of(transaction, insertTransaction(transaction));
+        } catch (Exception e) {
+            logger().error("Transaction with requestId = '{}' and customerLogin = '{}' failed to be created", transaction.requestId(), transaction.payer(), e);
+            return TransactionResult.failure("Transaction could not be created");
+        }
+    }
+
+    private static List<String> getRequestIds(List<Transaction> transactions, String payer) {
+        return transactions.stream().filter(transaction -> transaction.payer().equals(payer)).map(Transaction::requestId).distinct().toList();
+    }
 }
@@ -0,0 +1,78 @@
+package dev.maltsev.money.transfer.api.service.impl;
+
+import dev.maltsev.money.transfer.api.service.impl.WithdrawalService.Address;
+import dev.maltsev.money.transfer.api.service.impl.WithdrawalService.WithdrawalId;
+import dev.maltsev.money.transfer.api.service.impl.WithdrawalService.WithdrawalState;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking client of the external withdrawal service: the calls return right away, and their futures are completed once the service
+ * responds, so no thread waits for it meanwhile.
+ */
+interface AsyncWithdrawalService {
+
+    /**
+     * @see WithdrawalService#requestWithdrawal(WithdrawalId, Address, BigDecimal)
+     */
+    CompletableFuture<Void> requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount);
+
+    /**
+     * @see BatchWithdrawalService#getRequestStates(Collection)
+     */
+    CompletableFuture<Map<WithdrawalId, WithdrawalState>> getRequestStates(Collection<WithdrawalId> ids);
+}
+
+/**
+ * Makes the calls of a blocking service asynchronous. The service is local, so the calls are made right away, unless a latency is given to
+ * simulate a remote one: then every call is made once the latency has passed, on a single timer thread.
+ */
+class AsyncWithdrawalServiceAdapter implements AsyncWithdrawalService {
+
+    private final BatchWithdrawalService delegate;
+
+    private final long latencyMillis;
+
+    private final ScheduledExecutorService timer;
+
+    AsyncWithdrawalServiceAdapter(BatchWithdrawalService delegate, long latencyMillis) {
+        this.delegate = delegate;
+        this.latencyMillis = latencyMillis;
+        this.timer = latencyMillis > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "withdrawal-service");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    @Override
+    public CompletableFuture<Void> requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount) {
+        return call(() -> {
+            delegate.requestWithdrawal(id, address, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<WithdrawalId, WithdrawalState>> getRequestStates(Collection<WithdrawalId> ids) {
+        return call(() -> delegate.getRequestStates(ids));
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> call) {
+        if (timer == null) {
+            try {
+                return CompletableFuture.completedFuture(call.get());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(call, runnable -> timer.schedule(runnable, latencyMillis, TimeUnit.MILLISECONDS));
+    }
+}
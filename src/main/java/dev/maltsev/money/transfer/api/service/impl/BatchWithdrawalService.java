@@ -0,0 +1,56 @@
+package dev.maltsev.money.transfer.api.service.impl;
+
+import lombok.RequiredArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The external withdrawal service along with a bulk state lookup, so that many awaiting withdrawals are checked with a single call.
+ * <p>
+ * The provided {@link WithdrawalService} must be used as is, so the lookup is added by a separate interface.
+ */
+interface BatchWithdrawalService extends WithdrawalService {
+
+    /**
+     * Return current states of withdrawals
+     * @param ids - withdrawal ids
+     * @return current state by withdrawal id, the ids unknown to the service are missing
+     */
+    Map<WithdrawalId, WithdrawalState> getRequestStates(Collection<WithdrawalId> ids);
+}
+
+/**
+ * Adds the bulk state lookup to a service which only has the per-id one, by looking up the ids one by one. A service with a bulk endpoint of
+ * its own would implement {@link BatchWithdrawalService} directly.
+ */
+@RequiredArgsConstructor
+class BatchWithdrawalServiceAdapter implements BatchWithdrawalService {
+
+    private final WithdrawalService delegate;
+
+    @Override
+    public void requestWithdrawal(WithdrawalId id, Address address, BigDecimal amount) {
+        delegate.requestWithdrawal(id, address, amount);
+    }
+
+    @Override
+    public WithdrawalState getRequestState(WithdrawalId id) {
+        return delegate.getRequestState(id);
+    }
+
+    @Override
+    public Map<WithdrawalId, WithdrawalState> getRequestStates(Collection<WithdrawalId> ids) {
+        Map<WithdrawalId, WithdrawalState> states = new HashMap<>();
+        for (WithdrawalId id : ids) {
+            try {
+                states.put(id, delegate.getRequestState(id));
+            } catch (IllegalArgumentException e) {
+                // unknown to the service
+            }
+        }
+        return states;
+    }
+}
@@ -2,11 +2,26 @@ package dev.maltsev.money.transfer.api.service.impl;
 
 import dev.maltsev.money.transfer.api.domain.entity.Account;
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.LockedAccount;
 import dev.maltsev.money.transfer.api.service.exception.InvalidTransactionException;
 import lombok.NoArgsConstructor;
 import org.sql2o.Connection;
+import org.sql2o.Sql2o;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static dev.maltsev.money.transfer.api.dao.AccountDao.foldAccountStripes;
 import static dev.maltsev.money.transfer.api.dao.AccountDao.getAccountByNumber;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.getStripedAccountNumbers;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.lockAccount;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.lockTransferAccounts;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.stripeAccount;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.tryDebitPayerAccount;
 import static dev.maltsev.money.transfer.api.dao.CustomerDao.getAccountOwner;
 import static lombok.AccessLevel.PRIVATE;
 
@@ -27,8 +42,53 @@ public class CommandServiceUtils {
         }
     }
 
-    static void validateTransferTransaction(Transaction transaction, Connection connection) throws InvalidTransactionException {
+    /**
+     * Debits the payer account by an update guarded by its balance and its owner rather than validating the transaction and locking the
+     * account first. The account is only read if the debit fails, to tell why, or to fold its stripes into it and try again when they
+     * cover the rest.
+     */
+    static void debitPayerAccount(Transaction transaction, Connection connection) throws InvalidTransactionException {
+        if (tryDebitPayerAccount(transaction, connection)) {
+            return;
+        }
         validateTransaction(transaction, connection);
+        lockAccount(transaction.payerAccountNumber(), connection);
+        foldAccountStripes(transaction.payerAccountNumber(), connection);
+        if (!tryDebitPayerAccount(transaction, connection)) {
+            throw new InvalidTransactionException(String.format("Insufficient funds in account '%s'", transaction.payerAccountNumber()));
+        }
+    }
+
+    /**
+     * Locks the accounts of the transfer and validates it against them, reading both accounts along with their owners by a single query
+     * rather than reading them one by one and locking them again.
+     *
+     * @return the locked accounts by number
+     */
+    static Map<String, LockedAccount> lockAndValidateTransferTransaction(Transaction transaction, Connection connection)
+            throws InvalidTransactionException {
+        Map<String, LockedAccount> accounts = lockTransferAccounts(transaction, connection);
+        Map<String, BigDecimal> balances = new HashMap<>();
+        Map<String, String> owners = new HashMap<>();
+        accounts.values().forEach(account -> {
+            balances.put(account.number(), account.totalBalance());
+            if (account.owner() != null) {
+                owners.put(account.number(), account.owner());
+            }
+        });
+        validateTransferTransaction(transaction, balances, owners);
+        return accounts;
+    }
+
+    /**
+     * The same checks against balances and owners kept in memory rather than read from the database.
+     *
+     * @param balances the balance by account number, the unknown accounts are missing
+     * @param owners   the login of the owner by account number
+     */
+    static void validateTransferTransaction(Transaction transaction, Map<String, BigDecimal> balances, Map<String, String> owners)
+            throws InvalidTransactionException {
+        validatePayerAccount(transaction, balances, owners);
 
         if (transaction.payerAccountNumber().equalsIgnoreCase(transaction.recipientAccountNumber())) {
             throw new InvalidTransactionException(
@@ -36,13 +96,66 @@ public class CommandServiceUtils {
                             transaction.recipientAccountNumber()));
         }
 
-        Account recipientAccount = getAccountByNumber(transaction.recipientAccountNumber(), connection);
-        String recipientAccountOwner = getAccountOwner(transaction.recipientAccountNumber(), connection);
+        if (!balances.containsKey(transaction.recipientAccountNumber())
+                || !transaction.recipient().equals(owners.get(transaction.recipientAccountNumber()))) {
+            throw new InvalidTransactionException(
+                    String.format("A pair of account with number '%s' and customer with login '%s' is not found", transaction.payerAccountNumber(),
+                            transaction.payer()));
+        }
+    }
 
-        if (recipientAccount == null || !transaction.recipient().equals(recipientAccountOwner)) {
+    /**
+     * Checks that the payer account belongs to the payer and covers the amount, against balances and owners kept in memory, which is all
+     * there is to check for a withdrawal.
+     *
+     * @param balances the balance by account number, the unknown accounts are missing
+     * @param owners   the login of the owner by account number
+     */
+    static void validatePayerAccount(Transaction transaction, Map<String, BigDecimal> balances, Map<String, String> owners)
+            throws InvalidTransactionException {
+        BigDecimal payerBalance = balances.get(transaction.payerAccountNumber());
+        if (payerBalance == null || !transaction.payer().equals(owners.get(transaction.payerAccountNumber()))) {
             throw new InvalidTransactionException(
                     String.format("A pair of account with number '%s' and customer with login '%s' is not found", transaction.payerAccountNumber(),
                             transaction.payer()));
         }
+
+        if (payerBalance.compareTo(transaction.amount().value()) < 0) {
+            throw new InvalidTransactionException(String.format("Insufficient funds in account '%s'", transaction.payerAccountNumber()));
+        }
+    }
+
+    /**
+     * @return the numbers of the accounts which exist and are striped now
+     */
+    static List<String> stripeAccounts(Sql2o sql, Collection<String> accountNumbers, int stripes) {
+        List<String> striped = new ArrayList<>();
+        try (Connection connection = sql.beginTransaction()) {
+            for (String accountNumber : accountNumbers) {
+                if (stripeAccount(accountNumber, stripes, connection)) {
+                    striped.add(accountNumber);
+                }
+            }
+            connection.commit();
+        }
+        return striped;
+    }
+
+    /**
+     * Folds the stripes of every striped account into the account, each account in its own database transaction, so an account is
+     * locked only for a moment.
+     */
+    static void compactAccountStripes(Sql2o sql) {
+        List<String> accountNumbers;
+        try (Connection connection = sql.open()) {
+            accountNumbers = getStripedAccountNumbers(connection);
+        }
+        for (String accountNumber : accountNumbers) {
+            try (Connection connection = sql.beginTransaction()) {
+                lockAccount(accountNumber, connection);
+                foldAccountStripes(accountNumber, connection);
+                connection.commit();
+            }
+        }
     }
 }
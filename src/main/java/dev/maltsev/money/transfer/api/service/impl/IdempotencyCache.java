@@ -0,0 +1,110 @@
+package dev.maltsev.money.transfer.api.service.impl;
+
+import dev.maltsev.money.transfer.api.metrics.Counter;
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recently created transactions by request ID and payer, so that retried requests are answered without a database round trip. Holds up
+ * to a maximum amount of entries, each one for a fixed time after it's been put first, hits don't prolong it.
+ * <p>
+ * The cache is only a shortcut for the lookup of an existing transaction: a miss falls back to the database, where the unique constraint
+ * keeps requests idempotent anyway. Entries aren't removed along with their transactions, as the application never deletes them: anything
+ * deleting transaction rows behind its back, such as the cleanup between scenario tests, has to run with the cache disabled, otherwise a
+ * retried request would be answered with the ID of a missing transaction until the entry expires. Exposes {@code idempotencyCache.hits} and {@code idempotencyCache.misses} counters and a
+ * {@code idempotencyCache.size} gauge.
+ */
+public class IdempotencyCache {
+
+    public static final IdempotencyCache DISABLED = new IdempotencyCache();
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    // entries in the order they've been put, which is also the order they expire in
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    public IdempotencyCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > IdempotencyCache.this.maxSize;
+            }
+        };
+        this.hits = Metrics.counter("idempotencyCache.hits");
+        this.misses = Metrics.counter("idempotencyCache.misses");
+        Metrics.gauge("idempotencyCache.size", this::size);
+    }
+
+    private IdempotencyCache() {
+        this.maxSize = 0;
+        this.ttlNanos = 0;
+        this.entries = null;
+        this.hits = null;
+        this.misses = null;
+    }
+
+    /**
+     * @return the ID of the transaction created for the request of the payer, or null if it's not known to the cache
+     */
+    public String get(String requestId, String payer) {
+        if (entries == null) {
+            return null;
+        }
+        synchronized (entries) {
+            Key key = new Key(requestId, payer);
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() - System.nanoTime() <= 0) {
+                entries.remove(key);
+                entry = null;
+            }
+            (entry == null ? misses : hits).increment();
+            return entry == null ? null : entry.transactionId();
+        }
+    }
+
+    /**
+     * Remembers the transaction created for the request of the payer, unless it's remembered already, in which case the entry keeps its
+     * expiration. Must be called only once the transaction has been committed.
+     */
+    public void put(String requestId, String payer, String transactionId) {
+        if (entries == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext() && iterator.next().expiresAt() - now <= 0) {
+                iterator.remove();
+            }
+            // expired entries are gone, so an existing one is kept along with its place in the order of expiration
+            entries.putIfAbsent(new Key(requestId, payer), new Entry(transactionId, now + ttlNanos));
+        }
+    }
+
+    int size() {
+        if (entries == null) {
+            return 0;
+        }
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Key(String requestId, String payer) {
+    }
+
+    private record Entry(String transactionId, long expiresAt) {
+    }
+}
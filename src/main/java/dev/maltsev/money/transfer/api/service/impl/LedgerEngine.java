@@ -0,0 +1,454 @@
+package dev.maltsev.money.transfer.api.service.impl;
+
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.exception.InvalidTransactionException;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static dev.maltsev.money.transfer.api.dao.AccountDao.addAmountsToAccounts;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.getAccountByNumber;
+import static dev.maltsev.money.transfer.api.dao.AccountDao.getAllAccountBalances;
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.getAccountOwner;
+import static dev.maltsev.money.transfer.api.dao.DaoUtils.isConnectionFailure;
+import static dev.maltsev.money.transfer.api.dao.DaoUtils.isDeadlock;
+import static dev.maltsev.money.transfer.api.dao.DaoUtils.isLockTimeout;
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.getAllAccountOwners;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionById;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionsByIds;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.updateTransactions;
+import static dev.maltsev.money.transfer.api.domain.object.TransactionStatus.COMPLETED;
+import static dev.maltsev.money.transfer.api.domain.object.TransactionStatus.PROCESSING;
+import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.validatePayerAccount;
+import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.validateTransferTransaction;
+
+/**
+ * Keeps the account balances in memory and executes transfers against them on a single sequencer thread, one after another, so they
+ * take no locks and don't wait for the database. The executed transfers are persisted asynchronously by a separate thread in batches:
+ * the balance changes, statuses and history of a batch are written in a single database transaction, so the database is always
+ * consistent, only lagging behind the engine. The balances are rebuilt from the database when the engine starts, and the transfers
+ * executed but not persisted before a crash stay in PROCESSING status, so they are executed again by the recovery.
+ * <p>
+ * The status of a transfer is reported once it's persisted, so that no status is reported for a transfer the database doesn't have.
+ * Persisting a batch is retried on lock conflicts and connection failures a few times. If it still fails, the engine stops accepting
+ * transfers and withdrawals, failing the ones not persisted, which stay PROCESSING in the database, as the balances it keeps can't be
+ * written anymore. It has to be restarted then, to rebuild them from the database.
+ * <p>
+ * The engine must be the only one deciding on the balances it keeps. Withdrawals are validated and debited by the sequencer as well, and
+ * credited back by it once refunded, while they write their changes to the database themselves.
+ */
+class LedgerEngine implements Loggable {
+
+    private static final int MAX_PERSISTENCE_BATCH_SIZE = 1000;
+
+    private static final int MAX_PERSISTENCE_ATTEMPTS = 5;
+
+    // time in milliseconds before the second attempt to persist a batch, doubled with every next one
+    private static final long PERSISTENCE_RETRY_INTERVAL = 500;
+
+    // the persisted batches remembered to recognize the transfers read from the database before they were persisted
+    private static final int MAX_PERSISTED_BATCHES = 64;
+
+    private final Sql2o sql;
+
+    private final Consumer<Transaction> onPersisted;
+
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+
+    private final BlockingQueue<Executed> executed = new LinkedBlockingQueue<>();
+
+    private final AtomicLong persistedBatches = new AtomicLong();
+
+    private final Thread persister;
+
+    private volatile boolean closed;
+
+    // set once a batch has failed to be persisted for good
+    private volatile Exception persistenceFailure;
+
+    // set once the sequencer has handed over its last executed transfer
+    private volatile boolean sequencerStopped;
+
+    // owned by the sequencer thread
+
+    private final Map<String, BigDecimal> balances = new HashMap<>();
+
+    private final Map<String, String> owners = new HashMap<>();
+
+    // status by ID of the transfers executed and not known to be persisted yet, completed once they are
+    private final Map<String, CompletableFuture<TransactionStatus>> unpersisted = new HashMap<>();
+
+    private final Deque<PersistedBatch> recentlyPersisted = new ArrayDeque<>();
+
+    /**
+     * @param onPersisted called with every executed transfer once it's persisted
+     */
+    LedgerEngine(Sql2o sql, Consumer<Transaction> onPersisted) {
+        this.sql = sql;
+        this.onPersisted = onPersisted;
+        try (Connection connection = sql.open()) {
+            balances.putAll(getAllAccountBalances(connection));
+            owners.putAll(getAllAccountOwners(connection));
+        }
+        logger().info("Ledger engine is started with {} accounts", balances.size());
+        startThread("ledger-sequencer", this::runSequencer);
+        persister = startThread("ledger-persister", this::runPersister);
+    }
+
+    /**
+     * Executes transfers read from the database by their IDs, in the given order.
+     *
+     * @return the status by ID of every transfer once it's executed and persisted, null if the transfer doesn't exist
+     * @throws IllegalStateException if the engine is closed or has stopped after failing to persist transfers
+     */
+    Map<String, TransactionStatus> execute(List<String> transactionIds) {
+        checkAccepting();
+        // taken before the transfers are read, so the batches persisted meanwhile are checked by the sequencer
+        long readAfter = persistedBatches.get();
+        Map<String, Transaction> transactions = new HashMap<>();
+        try (Connection connection = sql.open()) {
+            findTransactionsByIds(transactionIds, connection).forEach(transaction -> transactions.put(transaction.id(), transaction));
+        }
+        Map<String, CompletableFuture<TransactionStatus>> executions = new LinkedHashMap<>();
+        for (String transactionId : transactionIds) {
+            Transaction transaction = transactions.get(transactionId);
+            if (transaction == null) {
+                logger().error("Transaction with id = '{}' doesn't exist", transactionId);
+                executions.put(transactionId, CompletableFuture.completedFuture(null));
+            } else if (!executions.containsKey(transactionId)) {
+                Execute execute = new Execute(transaction, readAfter, new CompletableFuture<>());
+                events.add(execute);
+                executions.put(transactionId, execute.status());
+            }
+        }
+        Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+        try {
+            executions.forEach((transactionId, status) -> statuses.put(transactionId, status.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IllegalStateException stopped) {
+                throw stopped;
+            }
+            throw e;
+        }
+        return statuses;
+    }
+
+    /**
+     * Validates a withdrawal against the balance of its payer account kept by the engine and debits it there.
+     *
+     * @throws InvalidTransactionException if the account doesn't belong to the payer or doesn't cover the amount
+     */
+    void debit(Transaction withdrawal) throws InvalidTransactionException {
+        checkAccepting();
+        Debit debit = new Debit(withdrawal, new CompletableFuture<>());
+        events.add(debit);
+        try {
+            debit.done().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof InvalidTransactionException invalid) {
+                throw invalid;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Credits the payer accounts of withdrawals back once their refunds have been committed to the database.
+     */
+    void refund(Collection<Transaction> withdrawals) {
+        if (!withdrawals.isEmpty()) {
+            events.add(new Refund(List.copyOf(withdrawals)));
+        }
+    }
+
+    /**
+     * Stops executing transfers and waits for the executed ones to be persisted.
+     */
+    void close(long timeoutMillis) {
+        closed = true;
+        events.add(new Shutdown());
+        try {
+            persister.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (persister.isAlive()) {
+            logger().warn("Ledger engine is closed with {} transfers not persisted", executed.size());
+        }
+    }
+
+    private void checkAccepting() {
+        if (closed) {
+            throw new IllegalStateException("Ledger engine is closed");
+        }
+        if (persistenceFailure != null) {
+            throw stopped();
+        }
+    }
+
+    private IllegalStateException stopped() {
+        return new IllegalStateException("Ledger engine has stopped after failing to persist transfers", persistenceFailure);
+    }
+
+    private void runSequencer() {
+        try {
+            while (true) {
+                Event event = events.take();
+                if (event instanceof Execute execute) {
+                    try {
+                        execute(execute);
+                    } catch (Exception e) {
+                        // e.g. an account failed to be loaded, which leaves the transfer as it is
+                        execute.status().completeExceptionally(e);
+                    }
+                } else if (event instanceof Debit debit) {
+                    try {
+                        debitWithdrawal(debit.transaction());
+                        debit.done().complete(null);
+                    } catch (Exception e) {
+                        debit.done().completeExceptionally(e);
+                    }
+                } else if (event instanceof Refund refund) {
+                    // an account which isn't loaded yet is read along with the refund once it's involved
+                    refund.transactions().forEach(transaction -> balances.computeIfPresent(transaction.payerAccountNumber(),
+                            (number, balance) -> balance.add(transaction.amount().value())));
+                } else if (event instanceof Persisted persisted) {
+                    persisted.batch().statuses().keySet().forEach(unpersisted::remove);
+                    recentlyPersisted.addLast(persisted.batch());
+                    if (recentlyPersisted.size() > MAX_PERSISTED_BATCHES) {
+                        recentlyPersisted.removeFirst();
+                    }
+                } else if (event instanceof Shutdown) {
+                    sequencerStopped = true;
+                    // the transfers submitted along with the shutdown are not executed
+                    events.forEach(remaining -> {
+                        if (remaining instanceof Execute execute) {
+                            execute.status().completeExceptionally(new IllegalStateException("Ledger engine is closed"));
+                        } else if (remaining instanceof Debit debit) {
+                            debit.done().completeExceptionally(new IllegalStateException("Ledger engine is closed"));
+                        }
+                    });
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Execute execute) {
+        if (persistenceFailure != null) {
+            throw stopped();
+        }
+        Transaction transaction = execute.transaction();
+        CompletableFuture<TransactionStatus> persisted = unpersisted.get(transaction.id());
+        if (persisted != null) {
+            // executed already, its status is reported once it's persisted all the same
+            logger().info("Transaction with id = '{}' is already processed", transaction.id());
+            persisted.whenComplete((status, e) -> {
+                if (e != null) {
+                    execute.status().completeExceptionally(e);
+                } else {
+                    execute.status().complete(status);
+                }
+            });
+            return;
+        }
+        TransactionStatus status = transaction.status() == PROCESSING
+                ? getPersistedStatus(transaction.id(), execute.readAfter())
+                : transaction.status();
+        if (status != null) {
+            logger().info("Transaction with id = '{}' is already processed", transaction.id());
+            transaction.setStatus(status);
+            execute.status().complete(status);
+            return;
+        }
+        try {
+            loadAccount(transaction.payerAccountNumber());
+            loadAccount(transaction.recipientAccountNumber());
+            validateTransferTransaction(transaction, balances, owners);
+            BigDecimal amount = transaction.amount().value();
+            balances.merge(transaction.payerAccountNumber(), amount.negate(), BigDecimal::add);
+            balances.merge(transaction.recipientAccountNumber(), amount, BigDecimal::add);
+            transaction.complete();
+        } catch (InvalidTransactionException e) {
+            logger().error("Transaction with id = '{}' failed to process: {}", transaction.id(), e.getMessage());
+            transaction.fail(e);
+        }
+        unpersisted.put(transaction.id(), execute.status());
+        executed.add(new Executed(transaction, execute.status()));
+    }
+
+    private void debitWithdrawal(Transaction withdrawal) throws InvalidTransactionException {
+        if (persistenceFailure != null) {
+            throw stopped();
+        }
+        loadAccount(withdrawal.payerAccountNumber());
+        validatePayerAccount(withdrawal, balances, owners);
+        balances.merge(withdrawal.payerAccountNumber(), withdrawal.amount().value().negate(), BigDecimal::add);
+    }
+
+    /**
+     * @param readAfter the amount of batches persisted before the transfer was read from the database
+     * @return the status of the transfer if it has been executed and persisted by the engine after it was read, otherwise null
+     */
+    private TransactionStatus getPersistedStatus(String transactionId, long readAfter) {
+        TransactionStatus status;
+        if (!recentlyPersisted.isEmpty() && recentlyPersisted.getFirst().number() > readAfter + 1) {
+            // some of the batches persisted since the read are forgotten already, so the transfer is read again
+            try (Connection connection = sql.open()) {
+                status = findTransactionById(transactionId, connection).status();
+            }
+            return status == PROCESSING ? null : status;
+        }
+        for (PersistedBatch batch : recentlyPersisted) {
+            if (batch.number() > readAfter && batch.statuses().containsKey(transactionId)) {
+                return batch.statuses().get(transactionId);
+            }
+        }
+        return null;
+    }
+
+    // an account created after the engine has started is loaded once it's involved in a transfer
+    private void loadAccount(String accountNumber) {
+        if (balances.containsKey(accountNumber)) {
+            return;
+        }
+        try (Connection connection = sql.open()) {
+            Account account = getAccountByNumber(accountNumber, connection);
+            if (account != null) {
+                balances.put(accountNumber, account.balance().value());
+                owners.put(accountNumber, getAccountOwner(accountNumber, connection));
+            }
+        }
+    }
+
+    private void runPersister() {
+        List<Executed> batch = new ArrayList<>();
+        try {
+            while (true) {
+                Executed first = executed.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (sequencerStopped && executed.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                executed.drainTo(batch, MAX_PERSISTENCE_BATCH_SIZE - 1);
+                if (persistenceFailure == null) {
+                    persist(batch);
+                } else {
+                    // executed before the sequencer found out the engine has stopped, so they depend on the ones failed to be persisted
+                    fail(batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void persist(List<Executed> batch) throws InterruptedException {
+        List<Transaction> transactions = batch.stream().map(Executed::transaction).toList();
+        Map<String, BigDecimal> amounts = new HashMap<>();
+        Map<String, TransactionStatus> statuses = new HashMap<>();
+        for (Transaction transaction : transactions) {
+            statuses.put(transaction.id(), transaction.status());
+            if (transaction.status() == COMPLETED) {
+                BigDecimal amount = transaction.amount().value();
+                amounts.merge(transaction.payerAccountNumber(), amount.negate(), BigDecimal::add);
+                amounts.merge(transaction.recipientAccountNumber(), amount, BigDecimal::add);
+            }
+        }
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = sql.beginTransaction()) {
+                addAmountsToAccounts(amounts, connection);
+                updateTransactions(transactions, connection);
+                connection.commit();
+                break;
+            } catch (Exception e) {
+                if (attempt == MAX_PERSISTENCE_ATTEMPTS || !isRetryable(e)) {
+                    logger().error("Failed to persist {} transfers, the ledger engine stops accepting transfers until it's restarted",
+                            transactions.size(), e);
+                    persistenceFailure = e;
+                    fail(batch);
+                    return;
+                }
+                logger().warn("Failed to persist {} transfers, attempt {}: {}", transactions.size(), attempt, e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(PERSISTENCE_RETRY_INTERVAL << (attempt - 1));
+            }
+        }
+        events.add(new Persisted(new PersistedBatch(persistedBatches.incrementAndGet(), statuses)));
+        for (Executed execution : batch) {
+            Transaction transaction = execution.transaction();
+            if (transaction.status() == COMPLETED) {
+                logger().info("Transfer transaction with id = '{}' is completed", transaction.id());
+            }
+            execution.persisted().complete(transaction.status());
+            onPersisted.accept(transaction);
+        }
+    }
+
+    // the transfers are left in PROCESSING status in the database, while their statuses are never reported
+    private void fail(List<Executed> batch) {
+        batch.forEach(execution -> execution.persisted().completeExceptionally(stopped()));
+    }
+
+    // lock conflicts and connection failures may pass, while anything else would fail the same way again
+    private static boolean isRetryable(Exception e) {
+        return e instanceof Sql2oException sqlException
+                && (isDeadlock(sqlException) || isLockTimeout(sqlException) || isConnectionFailure(sqlException));
+    }
+
+    private static Thread startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private sealed interface Event permits Execute, Debit, Refund, Persisted, Shutdown {
+    }
+
+    private record Execute(Transaction transaction, long readAfter, CompletableFuture<TransactionStatus> status) implements Event {
+    }
+
+    private record Debit(Transaction transaction, CompletableFuture<Void> done) implements Event {
+    }
+
+    private record Refund(List<Transaction> transactions) implements Event {
+    }
+
+    private record Executed(Transaction transaction, CompletableFuture<TransactionStatus> persisted) {
+    }
+
+    private record Persisted(PersistedBatch batch) implements Event {
+    }
+
+    private record Shutdown() implements Event {
+    }
+
+    private record PersistedBatch(long number, Map<String, TransactionStatus> statuses) {
+    }
+}
@@ -0,0 +1,127 @@
+package dev.maltsev.money.transfer.api.service.impl;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.service.IAccountLedger;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.exception.InvalidTransactionException;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionById;
+
+/**
+ * Executes transfers by the in-memory {@link LedgerEngine}, while they are still created in the database. The status of an executed
+ * transfer is returned and the listeners are notified once the engine has persisted it. The withdrawals have to
+ * go through it as the {@link IAccountLedger} of their service, since the engine keeps the balances.
+ */
+public class LedgerTransferCommandService extends AbstractCommandService implements ITransferCommandService, IAccountLedger {
+
+    private final LedgerEngine engine;
+
+    public LedgerTransferCommandService(Sql2o sql) {
+        this(sql, ITransactionListener.NONE);
+    }
+
+    public LedgerTransferCommandService(Sql2o sql, ITransactionListener transactionListener) {
+        this(sql, transactionListener, IdempotencyCache.DISABLED);
+    }
+
+    public LedgerTransferCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache) {
+        super(sql, transactionListener, idempotencyCache);
+        this.engine = new LedgerEngine(sql, this::notifyStatusChanged);
+    }
+
+    @Override
+    public String createTransaction(Transaction transaction) {
+        return insertTransaction(transaction);
+    }
+
+    @Override
+    public List<TransactionResult> createTransactions(List<Transaction> transactions) {
+        return insertTransactions(transactions);
+    }
+
+    // the transfer has to be created before the engine executes it, so it takes two database transactions here anyway
+    @Override
+    public Transaction createAndExecuteTransaction(Transaction transaction) {
+        String transactionId = createTransaction(transaction);
+        if (!transactionId.equals(transaction.id())) {
+            try (Connection connection = sql.open()) {
+                transaction = findTransactionById(transactionId, connection);
+            }
+        }
+        if (transaction.status() == TransactionStatus.PROCESSING) {
+            executeTransaction(transaction);
+        }
+        return transaction;
+    }
+
+    @Override
+    public TransactionStatus executeTransaction(String transactionId) {
+        return engine.execute(List.of(transactionId)).get(transactionId);
+    }
+
+    // the engine reads the transaction itself, as its status may have changed since it was sent
+    @Override
+    public TransactionStatus executeTransaction(Transaction transaction) {
+        TransactionStatus status = executeTransaction(transaction.id());
+        if (status != null) {
+            transaction.setStatus(status);
+        }
+        return status;
+    }
+
+    // read at once, while the engine executes them one by one anyway, so a failing transfer doesn't affect the others
+    @Override
+    public Map<String, TransactionStatus> executeTransactions(List<String> transactionIds) {
+        return engine.execute(transactionIds);
+    }
+
+    // the engine reads the transactions itself, as their statuses may have changed since they were sent
+    @Override
+    public Map<String, TransactionStatus> executeCreatedTransactions(List<Transaction> transactions) {
+        Map<String, TransactionStatus> statuses = executeTransactions(transactions.stream().map(Transaction::id).toList());
+        transactions.forEach(transaction -> {
+            TransactionStatus status = statuses.get(transaction.id());
+            if (status != null) {
+                transaction.setStatus(status);
+            }
+        });
+        return statuses;
+    }
+
+    @Override
+    public List<String> stripeAccounts(Collection<String> accountNumbers, int stripes) {
+        return CommandServiceUtils.stripeAccounts(sql, accountNumbers, stripes);
+    }
+
+    @Override
+    public void compactAccountStripes() {
+        CommandServiceUtils.compactAccountStripes(sql);
+    }
+
+    @Override
+    public boolean debitWithdrawal(Transaction transaction) throws InvalidTransactionException {
+        engine.debit(transaction);
+        return true;
+    }
+
+    @Override
+    public void refundWithdrawals(Collection<Transaction> transactions) {
+        engine.refund(transactions);
+    }
+
+    /**
+     * Stops the engine, waiting for the executed transfers to be persisted.
+     */
+    public void close(long timeoutMillis) {
+        engine.close(timeoutMillis);
+    }
+}
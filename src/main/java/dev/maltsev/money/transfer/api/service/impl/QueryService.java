@@ -1,14 +1,17 @@
 package dev.maltsev.money.transfer.api.service.impl;
 
 import dev.maltsev.money.transfer.api.dao.TransactionDao;
-import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionKey;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
 import dev.maltsev.money.transfer.api.service.IQueryService;
 import dev.maltsev.money.transfer.api.service.exception.UnknownTransactionException;
 import org.sql2o.Connection;
 import org.sql2o.Sql2o;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 public class QueryService extends AbstractService implements IQueryService {
 
@@ -31,9 +34,17 @@ public class QueryService extends AbstractService implements IQueryService {
     }
 
     @Override
-    public List<Transaction> getAllStuckTransactions() {
+    public List<TransactionKey> getStuckTransactions(TransactionType type, TransactionStatus status, LocalDateTime updatedBefore,
+                                                     TransactionKey after, int limit) {
         try (Connection connection = sql.open()) {
-            return TransactionDao.getAllStuckTransactions(connection);
+            return TransactionDao.getStuckTransactionKeys(type, status, updatedBefore, after, limit, connection);
+        }
+    }
+
+    @Override
+    public Map<String, LocalDateTime> getAwaitingTransactionChecks() {
+        try (Connection connection = sql.open()) {
+            return TransactionDao.getAwaitingTransactionChecks(connection);
         }
     }
 }
@@ -1,21 +1,75 @@
 package dev.maltsev.money.transfer.api.service.impl;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.LockedAccount;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
-import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.metrics.Counter;
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.exception.InvalidTransactionException;
 import org.sql2o.Connection;
 import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static dev.maltsev.money.transfer.api.dao.AccountDao.*;
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.getAccountOwners;
+import static dev.maltsev.money.transfer.api.dao.DaoUtils.isDeadlock;
+import static dev.maltsev.money.transfer.api.dao.DaoUtils.isLockTimeout;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.TransactionAlreadyExistsException;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionById;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionIdByRequestIdAndPayer;
 import static dev.maltsev.money.transfer.api.dao.TransactionDao.lockTransactionById;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.lockTransactionStatusById;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.lockTransactionStatusesByIds;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.tryInsertTransaction;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.lockTransactionsByIds;
 import static dev.maltsev.money.transfer.api.dao.TransactionDao.updateTransaction;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.updateTransactions;
 import static dev.maltsev.money.transfer.api.domain.object.TransactionStatus.PROCESSING;
+import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.lockAndValidateTransferTransaction;
 import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.validateTransferTransaction;
 
-public class TransferCommandService extends AbstractCommandService implements ICommandService {
+public class TransferCommandService extends AbstractCommandService implements ITransferCommandService {
+
+    private static final int MAX_LOCK_ATTEMPTS = 5;
+
+    private static final long LOCK_RETRY_BACKOFF = 10;
+
+    private final Counter deadlocks;
+
+    private final Counter lockTimeouts;
+
+    private final Counter lockRetries;
 
     public TransferCommandService(Sql2o sql) {
-        super(sql);
+        this(sql, ITransactionListener.NONE);
+    }
+
+    public TransferCommandService(Sql2o sql, ITransactionListener transactionListener) {
+        this(sql, transactionListener, IdempotencyCache.DISABLED);
+    }
+
+    public TransferCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache) {
+        super(sql, transactionListener, idempotencyCache);
+        this.deadlocks = Metrics.counter("transfer.deadlocks");
+        this.lockTimeouts = Metrics.counter("transfer.lockTimeouts");
+        this.lockRetries = Metrics.counter("transfer.lockRetries");
     }
 
     @Override
@@ -24,31 +78,295 @@ public class TransferCommandService extends AbstractCommandService implements IC
     }
 
     @Override
-    public TransactionStatus executeTransaction(String transactionId) {
+    public List<TransactionResult> createTransactions(List<Transaction> transactions) {
+        return insertTransactions(transactions);
+    }
+
+    @Override
+    public Transaction createAndExecuteTransaction(Transaction transaction) {
+        String transactionId = idempotencyCache.get(transaction.requestId(), transaction.payer());
+        if (transactionId == null) {
+            try {
+                transactionId = insertAndExecuteTransaction(transaction);
+            } catch (Sql2oException e) {
+                if (!countLockConflict(e)) {
+                    throw e;
+                }
+                // the creation is rolled back along with the execution, so they are done separately, retrying the execution
+                logger().info("Transfer transaction with id = '{}' is created and executed separately due to a lock conflict",
+                        transaction.id());
+                transactionId = insertTransaction(transaction);
+            }
+        }
+
+        if (!transactionId.equals(transaction.id())) {
+            try (Connection connection = sql.open()) {
+                transaction = findTransactionById(transactionId, connection);
+            }
+        }
+        if (transaction.status() == PROCESSING) {
+            executeTransaction(transaction);
+        }
+        return transaction;
+    }
+
+    /**
+     * Inserts the transaction and executes it within the same database transaction, saving the second one along with locking the
+     * transaction again.
+     *
+     * @return the ID of the executed transaction, or the ID of the existing one with the same request, which is left as it is
+     */
+    private String insertAndExecuteTransaction(Transaction transaction) {
         try (Connection connection = sql.beginTransaction()) {
-            Transaction transaction = lockTransactionById(transactionId, connection);
-            if (transaction != null) {
-                if (transaction.status() == PROCESSING) {
-                    try {
-                        validateTransferTransaction(transaction, connection);
-                        lockInvolvedAccounts(transaction, connection);
-                        subtractAmountFromPayerAccount(transaction, connection);
-                        addAmountToRecipientAccount(transaction, connection);
-                        updateTransaction(transaction.complete(), connection);
-                        logger().info("Transfer transaction with id = '{}' is completed", transactionId);
-                    } catch (Exception e) {
-                        logger().error("Transaction with id = '{}' failed to process", transactionId, e);
-                        updateTransaction(transaction.fail(e), connection);
+            String transactionId = findTransactionIdByRequestIdAndPayer(transaction.requestId(), transaction.payer(), connection);
+            if (transactionId == null) {
+                try {
+                    transactionId = tryInsertTransaction(transaction, connection);
+                    executeTransaction(transactionId, transaction, connection);
+                } catch (TransactionAlreadyExistsException e) {
+                    // inserted by a concurrent request meanwhile
+                    logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(),
+                            transaction.payer());
+                    transactionId = findTransactionIdByRequestIdAndPayer(transaction.requestId(), transaction.payer(), connection);
+                }
+            } else {
+                logger().info("Transaction with requestId = '{}' and customerLogin = '{}' already exists", transaction.requestId(),
+                        transaction.payer());
+            }
+            idempotencyCache.put(transaction.requestId(), transaction.payer(), transactionId);
+            return transactionId;
+        }
+    }
+
+    @Override
+    public TransactionStatus executeTransaction(String transactionId) {
+        return retryOnLockConflict(transactionId, () -> {
+            try (Connection connection = sql.beginTransaction()) {
+                return executeTransaction(transactionId, lockTransactionById(transactionId, connection), connection);
+            }
+        });
+    }
+
+    @Override
+    public TransactionStatus executeTransaction(Transaction transaction) {
+        return retryOnLockConflict(transaction.id(), () -> {
+            try (Connection connection = sql.beginTransaction()) {
+                TransactionStatus status = lockTransactionStatusById(transaction.id(), connection);
+                if (status != null) {
+                    transaction.setStatus(status);
+                }
+                return executeTransaction(transaction.id(), status != null ? transaction : null, connection);
+            }
+        });
+    }
+
+    /**
+     * Retries an execution rolled back by a deadlock or a lock timeout with a growing jittered delay, as such a failure is caused by
+     * concurrent transfers rather than by the transfer itself. A transfer still conflicting after the last attempt is left in PROCESSING
+     * status to the recovery, rather than failed.
+     */
+    private TransactionStatus retryOnLockConflict(String transactionId, Supplier<TransactionStatus> execution) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return execution.get();
+            } catch (Sql2oException e) {
+                if (!countLockConflict(e)) {
+                    throw e;
+                }
+                if (attempt == MAX_LOCK_ATTEMPTS) {
+                    logger().warn("Transfer transaction with id = '{}' is left to the recovery after {} lock conflicts", transactionId,
+                            attempt);
+                    return PROCESSING;
+                }
+                lockRetries.increment();
+                long backoff = LOCK_RETRY_BACKOFF << (attempt - 1);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return PROCESSING;
+                }
+            }
+        }
+    }
+
+    private TransactionStatus executeTransaction(String transactionId, Transaction transaction, Connection connection) {
+        if (transaction != null) {
+            if (transaction.status() == PROCESSING) {
+                try {
+                    Map<String, LockedAccount> accounts = lockAndValidateTransferTransaction(transaction, connection);
+                    if (!subtractAmountFromPayerAccount(transaction, accounts.get(transaction.payerAccountNumber()), connection)) {
+                        throw new InvalidTransactionException(
+                                String.format("Insufficient funds in account '%s'", transaction.payerAccountNumber()));
+                    }
+                    addAmountToRecipientAccount(transaction, accounts.get(transaction.recipientAccountNumber()).stripes(), connection);
+                    updateTransaction(transaction.complete(), connection);
+                    logger().info("Transfer transaction with id = '{}' is completed", transactionId);
+                } catch (Sql2oException e) {
+                    if (isDeadlock(e) || isLockTimeout(e)) {
+                        // rolled back and retried as a whole
+                        transaction.setStatus(PROCESSING);
+                        throw e;
                     }
-                    connection.commit();
-                } else {
-                    logger().info("Transaction with id = '{}' is already processed", transactionId);
+                    logger().error("Transaction with id = '{}' failed to process", transactionId, e);
+                    updateTransaction(transaction.fail(e), connection);
+                } catch (Exception e) {
+                    logger().error("Transaction with id = '{}' failed to process", transactionId, e);
+                    updateTransaction(transaction.fail(e), connection);
                 }
-                return transaction.status();
+                connection.commit();
+                notifyStatusChanged(transaction);
             } else {
+                logger().info("Transaction with id = '{}' is already processed", transactionId);
+            }
+            return transaction.status();
+        } else {
+            logger().error("Transaction with id = '{}' doesn't exist", transactionId);
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, TransactionStatus> executeTransactions(List<String> transactionIds) {
+        return executeBatch(transactionIds, connection -> lockTransactionsByIds(transactionIds, connection),
+                () -> executeTransactionsOneByOne(transactionIds));
+    }
+
+    @Override
+    public Map<String, TransactionStatus> executeCreatedTransactions(List<Transaction> transactions) {
+        Map<String, Transaction> transactionsById = new LinkedHashMap<>();
+        transactions.forEach(transaction -> transactionsById.putIfAbsent(transaction.id(), transaction));
+        return executeBatch(List.copyOf(transactionsById.keySet()), connection -> {
+            List<Transaction> locked = new ArrayList<>();
+            lockTransactionStatusesByIds(transactionsById.keySet(), connection).forEach((transactionId, status) -> {
+                Transaction transaction = transactionsById.get(transactionId);
+                transaction.setStatus(status);
+                locked.add(transaction);
+            });
+            return locked;
+        }, () -> {
+            // the statuses of the transactions completed by the rolled back batch are read again
+            Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+            transactionsById.forEach((transactionId, transaction) -> statuses.put(transactionId, executeTransaction(transaction)));
+            return statuses;
+        });
+    }
+
+    /**
+     * @param lockTransactions locks the transactions of the batch, reading the ones that exist
+     * @param oneByOne         executes the transactions of the batch one by one, if the batch can't be executed as a whole
+     */
+    private Map<String, TransactionStatus> executeBatch(List<String> transactionIds,
+                                                        Function<Connection, Collection<Transaction>> lockTransactions,
+                                                        Supplier<Map<String, TransactionStatus>> oneByOne) {
+        Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+        transactionIds.forEach(transactionId -> statuses.put(transactionId, null));
+        List<Transaction> completed = new ArrayList<>();
+        try (Connection connection = sql.beginTransaction()) {
+            try {
+                Map<String, Transaction> processing = new HashMap<>();
+                for (Transaction transaction : lockTransactions.apply(connection)) {
+                    if (transaction.status() == PROCESSING) {
+                        processing.put(transaction.id(), transaction);
+                    } else {
+                        logger().info("Transaction with id = '{}' is already processed", transaction.id());
+                        statuses.put(transaction.id(), transaction.status());
+                    }
+                }
+
+                Set<String> accountNumbers = new HashSet<>();
+                Set<String> payerAccountNumbers = new HashSet<>();
+                processing.values().forEach(transaction -> {
+                    accountNumbers.add(transaction.payerAccountNumber());
+                    accountNumbers.add(transaction.recipientAccountNumber());
+                    payerAccountNumbers.add(transaction.payerAccountNumber());
+                });
+                // a striped recipient is credited by one of its stripes, so it's locked only if it's debited as well
+                Map<String, BigDecimal> balances = lockAccountsByNumbers(accountNumbers, payerAccountNumbers, connection);
+                Map<String, String> owners = getAccountOwners(accountNumbers, connection);
+
+                // validated against the balances left by the transfers before, as if they were executed one by one
+                Map<String, BigDecimal> amounts = new HashMap<>();
+                for (String transactionId : statuses.keySet()) {
+                    Transaction transaction = processing.get(transactionId);
+                    if (transaction == null) {
+                        continue;
+                    }
+                    if (!isExecutable(transaction, balances, owners)) {
+                        connection.rollback();
+                        logger().info("Batch of {} transfers is executed one by one, as transfer with id = '{}' can't be executed",
+                                transactionIds.size(), transactionId);
+                        return oneByOne.get();
+                    }
+                    BigDecimal amount = transaction.amount().value();
+                    balances.merge(transaction.payerAccountNumber(), amount.negate(), BigDecimal::add);
+                    balances.merge(transaction.recipientAccountNumber(), amount, BigDecimal::add);
+                    amounts.merge(transaction.payerAccountNumber(), amount.negate(), BigDecimal::add);
+                    amounts.merge(transaction.recipientAccountNumber(), amount, BigDecimal::add);
+                    completed.add(transaction.complete());
+                }
+
+                addAmountsToAccounts(amounts, connection);
+                updateTransactions(completed, connection);
+                connection.commit();
+            } catch (Exception e) {
+                // a lock conflict of the batch is retried by the transfers one by one
+                countLockConflict(e);
+                logger().error("Batch of {} transfers failed to process, executing them one by one", transactionIds.size(), e);
+                connection.rollback();
+                return oneByOne.get();
+            }
+        }
+
+        completed.forEach(transaction -> {
+            logger().info("Transfer transaction with id = '{}' is completed", transaction.id());
+            statuses.put(transaction.id(), transaction.status());
+            notifyStatusChanged(transaction);
+        });
+        statuses.forEach((transactionId, status) -> {
+            if (status == null) {
                 logger().error("Transaction with id = '{}' doesn't exist", transactionId);
-                return null;
             }
+        });
+        return statuses;
+    }
+
+    @Override
+    public List<String> stripeAccounts(Collection<String> accountNumbers, int stripes) {
+        return CommandServiceUtils.stripeAccounts(sql, accountNumbers, stripes);
+    }
+
+    @Override
+    public void compactAccountStripes() {
+        CommandServiceUtils.compactAccountStripes(sql);
+    }
+
+    private boolean countLockConflict(Exception e) {
+        if (e instanceof Sql2oException sqlException) {
+            if (isDeadlock(sqlException)) {
+                deadlocks.increment();
+                return true;
+            }
+            if (isLockTimeout(sqlException)) {
+                lockTimeouts.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, TransactionStatus> executeTransactionsOneByOne(List<String> transactionIds) {
+        Map<String, TransactionStatus> statuses = new LinkedHashMap<>();
+        transactionIds.forEach(transactionId -> statuses.put(transactionId, executeTransaction(transactionId)));
+        return statuses;
+    }
+
+    private static boolean isExecutable(Transaction transaction, Map<String, BigDecimal> balances, Map<String, String> owners) {
+        try {
+            validateTransferTransaction(transaction, balances, owners);
+            return true;
+        } catch (InvalidTransactionException e) {
+            return false;
         }
     }
 }
@@ -1,27 +1,80 @@
 package dev.maltsev.money.transfer.api.service.impl;
 
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.entity.WithdrawalOutboxEntry;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
-import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.service.IAccountLedger;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
 import org.sql2o.Connection;
 import org.sql2o.Sql2o;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 import static dev.maltsev.money.transfer.api.dao.AccountDao.*;
 import static dev.maltsev.money.transfer.api.dao.AccountDao.refundPayerAccount;
 import static dev.maltsev.money.transfer.api.dao.TransactionDao.*;
 import static dev.maltsev.money.transfer.api.dao.TransactionDao.updateTransaction;
-import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.validateTransaction;
+import static dev.maltsev.money.transfer.api.dao.WithdrawalOutboxDao.*;
+import static dev.maltsev.money.transfer.api.service.impl.CommandServiceUtils.debitPayerAccount;
 import static dev.maltsev.money.transfer.api.service.impl.WithdrawalService.WithdrawalState.COMPLETED;
 import static dev.maltsev.money.transfer.api.service.impl.WithdrawalService.WithdrawalState.FAILED;
 
-public class WithdrawCommandService extends AbstractCommandService implements ICommandService {
+public class WithdrawCommandService extends AbstractCommandService implements IWithdrawCommandService {
 
-    private final WithdrawalService externalWithdrawalService = new WithdrawalServiceStub();
+    private static final int MAX_DISPATCH_ATTEMPTS = 5;
+
+    // time in milliseconds before the second attempt to send a withdrawal, doubled with every next one
+    private static final long DISPATCH_RETRY_INTERVAL = 1000;
+
+    private final AsyncWithdrawalService externalWithdrawalService;
+
+    private final IAccountLedger accountLedger;
 
     public WithdrawCommandService(Sql2o sql) {
-        super(sql);
+        this(sql, ITransactionListener.NONE);
+    }
+
+    public WithdrawCommandService(Sql2o sql, ITransactionListener transactionListener) {
+        this(sql, transactionListener, IdempotencyCache.DISABLED);
+    }
+
+    public WithdrawCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache) {
+        this(sql, transactionListener, idempotencyCache, 0);
+    }
+
+    /**
+     * @param withdrawalServiceLatency time in milliseconds every call to the external withdrawal service takes, to simulate a remote one
+     */
+    public WithdrawCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache,
+                                  long withdrawalServiceLatency) {
+        this(sql, transactionListener, idempotencyCache, withdrawalServiceLatency, IAccountLedger.NONE);
+    }
+
+    /**
+     * @param withdrawalServiceLatency time in milliseconds every call to the external withdrawal service takes, to simulate a remote one
+     * @param accountLedger            the balances the withdrawals are debited from and refunded to along with the database
+     */
+    public WithdrawCommandService(Sql2o sql, ITransactionListener transactionListener, IdempotencyCache idempotencyCache,
+                                  long withdrawalServiceLatency, IAccountLedger accountLedger) {
+        super(sql, transactionListener, idempotencyCache);
+        this.externalWithdrawalService = new AsyncWithdrawalServiceAdapter(new BatchWithdrawalServiceAdapter(new WithdrawalServiceStub()),
+                withdrawalServiceLatency);
+        this.accountLedger = accountLedger;
     }
 
     @Override
@@ -29,43 +82,247 @@ public class WithdrawCommandService extends AbstractCommandService implements IC
         return insertTransaction(transaction);
     }
 
+    @Override
+    public List<TransactionResult> createTransactions(List<Transaction> transactions) {
+        return insertTransactions(transactions);
+    }
+
     @Override
     public TransactionStatus executeTransaction(String transactionId) {
         try (Connection connection = sql.beginTransaction()) {
-            Transaction transaction = lockTransactionById(transactionId, connection);
-            if (transaction != null) {
-                if (transaction.status() == TransactionStatus.PROCESSING) {
-                    return processTransaction(transaction, connection);
-                } else if (transaction.status() == TransactionStatus.AWAITING) {
-                    return tryCompleteTransaction(transaction, connection);
+            return executeTransaction(transactionId, lockTransactionById(transactionId, connection), connection);
+        }
+    }
+
+    @Override
+    public TransactionStatus executeTransaction(Transaction transaction) {
+        try (Connection connection = sql.beginTransaction()) {
+            TransactionStatus status = lockTransactionStatusById(transaction.id(), connection);
+            if (status != null) {
+                transaction.setStatus(status);
+            }
+            return executeTransaction(transaction.id(), status != null ? transaction : null, connection);
+        }
+    }
+
+    private TransactionStatus executeTransaction(String transactionId, Transaction transaction, Connection connection) {
+        if (transaction != null) {
+            if (transaction.status() == TransactionStatus.PROCESSING) {
+                return processTransaction(transaction, connection);
+            } else if (transaction.status() == TransactionStatus.AWAITING) {
+                return tryCompleteTransaction(transaction, connection);
+            } else {
+                logger().info("Transaction with id = '{}' is already processed", transactionId);
+                return transaction.status();
+            }
+        } else {
+            logger().error("Transaction with id = '{}' doesn't exist", transactionId);
+            return null;
+        }
+    }
+
+    @Override
+    public List<String> dispatchWithdrawals(int batchSize) {
+        List<WithdrawalOutboxEntry> entries;
+        try (Connection connection = sql.open()) {
+            entries = getDueOutboxEntries(batchSize, connection);
+        }
+        if (entries.isEmpty()) {
+            return List.of();
+        }
+
+        // the withdrawals of the batch are sent at once, so the batch waits for the external service only once
+        Map<WithdrawalOutboxEntry, CompletableFuture<Void>> requests = new LinkedHashMap<>();
+        entries.forEach(entry -> requests.put(entry, externalWithdrawalService.requestWithdrawal(toWithdrawalId(entry.transaction().id()),
+                new WithdrawalService.Address(entry.transaction().withdrawalAddress()), entry.transaction().amount().value())));
+
+        // joined on the calling worker thread, so the database work below never runs on the threads of the external service
+        List<String> sent = new ArrayList<>();
+        Map<String, Throwable> exhausted = new LinkedHashMap<>();
+        Map<String, Throwable> rejected = new LinkedHashMap<>();
+        Map<String, LocalDateTime> retries = new HashMap<>();
+        requests.forEach((entry, request) -> {
+            Transaction transaction = entry.transaction();
+            try {
+                request.join();
+                sent.add(transaction.id());
+                logger().info("Withdrawal transaction with id = '{}' is sent to address = {}", transaction.id(), transaction.withdrawalAddress());
+            } catch (CompletionException e) {
+                logger().warn("Withdrawal transaction with id = '{}' failed to be sent, attempt {}: {}", transaction.id(),
+                        entry.attempts() + 1, e.getCause().getMessage());
+                if (entry.attempts() + 1 >= MAX_DISPATCH_ATTEMPTS) {
+                    exhausted.put(transaction.id(), e.getCause());
                 } else {
-                    logger().info("Transaction with id = '{}' is already processed", transactionId);
-                    return transaction.status();
+                    retries.put(transaction.id(), getNextAttemptAt(entry.attempts()));
                 }
-            } else {
-                logger().error("Transaction with id = '{}' doesn't exist", transactionId);
-                return null;
+            }
+        });
+
+        if (!exhausted.isEmpty()) {
+            // a failed send might have reached the service anyway, so only the withdrawals unknown to it are refunded
+            try {
+                Map<String, WithdrawalService.WithdrawalState> states = requestWithdrawalStates(exhausted.keySet());
+                exhausted.forEach((transactionId, e) -> {
+                    if (states.containsKey(transactionId)) {
+                        logger().info("Withdrawal transaction with id = '{}' is received by the withdrawal service despite failed sends",
+                                transactionId);
+                        sent.add(transactionId);
+                    } else {
+                        logger().error("Transaction with id = '{}' failed to process", transactionId, e);
+                        rejected.put(transactionId, e);
+                    }
+                });
+            } catch (Exception e) {
+                logger().error("Failed to get states of {} withdrawals failed to be sent, they are sent again later", exhausted.size(), e);
+                exhausted.keySet().forEach(transactionId -> retries.put(transactionId, getNextAttemptAt(MAX_DISPATCH_ATTEMPTS - 1)));
             }
         }
+
+        List<Transaction> failed = new ArrayList<>();
+        try (Connection connection = sql.beginTransaction()) {
+            deleteOutboxEntries(sent, connection);
+            postponeOutboxEntries(retries, connection);
+            if (!rejected.isEmpty()) {
+                // refunded only while still awaiting, the transactions read from the outbox might have been processed meanwhile
+                for (Transaction transaction : lockTransactionsByIds(rejected.keySet(), connection)) {
+                    if (transaction.status() == TransactionStatus.AWAITING) {
+                        failed.add(transaction.fail(rejected.get(transaction.id())));
+                    } else {
+                        logger().info("Transaction with id = '{}' is already processed", transaction.id());
+                    }
+                }
+                lockPayerAccounts(failed, connection);
+                refundPayerAccounts(failed, connection);
+                updateTransactions(failed, connection);
+                deleteOutboxEntries(rejected.keySet(), connection);
+            }
+            connection.commit();
+        }
+        accountLedger.refundWithdrawals(failed);
+        failed.forEach(this::notifyStatusChanged);
+        return sent;
+    }
+
+    @Override
+    public TransactionStatus checkTransaction(String transactionId) {
+        return checkTransactions(List.of(transactionId)).get(transactionId);
+    }
+
+    @Override
+    public Map<String, TransactionStatus> checkTransactions(Collection<String> transactionIds) {
+        Map<String, TransactionStatus> statuses = new HashMap<>();
+        transactionIds.forEach(transactionId -> statuses.put(transactionId, TransactionStatus.AWAITING));
+
+        Map<String, WithdrawalService.WithdrawalState> finalStates = new HashMap<>();
+        getWithdrawalStates(transactionIds).forEach((transactionId, withdrawalState) -> {
+            if (withdrawalState == COMPLETED || withdrawalState == FAILED) {
+                finalStates.put(transactionId, withdrawalState);
+            }
+        });
+        if (finalStates.isEmpty()) {
+            // nothing to lock while the withdrawals are still in progress or service is unavailable
+            return statuses;
+        }
+
+        List<Transaction> completed = new ArrayList<>();
+        List<Transaction> failed = new ArrayList<>();
+        try (Connection connection = sql.beginTransaction()) {
+            Set<String> missing = new HashSet<>(finalStates.keySet());
+            for (Transaction transaction : lockTransactionsByIds(finalStates.keySet(), connection)) {
+                missing.remove(transaction.id());
+                if (transaction.status() != TransactionStatus.AWAITING) {
+                    logger().info("Transaction with id = '{}' is already processed", transaction.id());
+                    statuses.put(transaction.id(), transaction.status());
+                } else if (finalStates.get(transaction.id()) == COMPLETED) {
+                    completed.add(transaction.complete());
+                } else {
+                    failed.add(transaction.fail());
+                }
+            }
+            missing.forEach(transactionId -> {
+                logger().error("Transaction with id = '{}' doesn't exist", transactionId);
+                statuses.put(transactionId, null);
+            });
+
+            lockPayerAccounts(failed, connection);
+            refundPayerAccounts(failed, connection);
+            updateTransactions(completed, connection);
+            updateTransactions(failed, connection);
+            connection.commit();
+        }
+        accountLedger.refundWithdrawals(failed);
+
+        Stream.concat(completed.stream(), failed.stream()).forEach(transaction -> {
+            statuses.put(transaction.id(), transaction.status());
+            notifyStatusChanged(transaction);
+        });
+        return statuses;
+    }
+
+    @Override
+    public void saveNextChecks(Map<String, LocalDateTime> nextChecks) {
+        try (Connection connection = sql.beginTransaction()) {
+            updateNextCheckAt(nextChecks, connection);
+            connection.commit();
+        }
     }
 
-    @SuppressWarnings("StatementWithEmptyBody")
     private TransactionStatus tryCompleteTransaction(Transaction transaction, Connection connection) {
-        WithdrawalService.WithdrawalState withdrawalState = null;
+        return completeTransaction(transaction, getWithdrawalState(transaction.id()), connection);
+    }
+
+    private static LocalDateTime getNextAttemptAt(int attempts) {
+        return LocalDateTime.now().plus(Duration.ofMillis(DISPATCH_RETRY_INTERVAL << attempts));
+    }
+
+    private Map<String, WithdrawalService.WithdrawalState> getWithdrawalStates(Collection<String> transactionIds) {
+        Map<String, WithdrawalService.WithdrawalState> states;
         try {
-            withdrawalState = externalWithdrawalService.getRequestState(new WithdrawalService.WithdrawalId(UUID.fromString(transaction.id())));
+            states = requestWithdrawalStates(transactionIds);
         } catch (Exception e) {
-            logger().error("Transaction with id = '{}' failed to process", transaction.id(), e);
+            logger().error("Failed to get states of {} withdrawals", transactionIds.size(), e);
+            return new HashMap<>();
         }
+        transactionIds.stream()
+                .filter(transactionId -> !states.containsKey(transactionId))
+                .forEach(transactionId -> logger().error("Withdrawal of transaction with id = '{}' is unknown to the withdrawal service",
+                        transactionId));
+        return states;
+    }
+
+    /**
+     * @return the state by transaction ID of every withdrawal known to the service
+     */
+    private Map<String, WithdrawalService.WithdrawalState> requestWithdrawalStates(Collection<String> transactionIds) {
+        Map<String, WithdrawalService.WithdrawalState> states = new HashMap<>();
+        externalWithdrawalService.getRequestStates(transactionIds.stream().map(WithdrawCommandService::toWithdrawalId).toList()).join()
+                .forEach((withdrawalId, withdrawalState) -> states.put(withdrawalId.value().toString(), withdrawalState));
+        return states;
+    }
+
+    private static WithdrawalService.WithdrawalId toWithdrawalId(String transactionId) {
+        return new WithdrawalService.WithdrawalId(UUID.fromString(transactionId));
+    }
+
+    private WithdrawalService.WithdrawalState getWithdrawalState(String transactionId) {
+        return getWithdrawalStates(List.of(transactionId)).get(transactionId);
+    }
+
+    @SuppressWarnings("StatementWithEmptyBody")
+    private TransactionStatus completeTransaction(Transaction transaction, WithdrawalService.WithdrawalState withdrawalState,
+                                                  Connection connection) {
         if (withdrawalState == COMPLETED) {
             updateTransaction(transaction.complete(), connection);
             connection.commit();
+            notifyStatusChanged(transaction);
             return transaction.status();
         } else if (withdrawalState == FAILED) {
             lockInvolvedAccounts(transaction, connection);
             refundPayerAccount(transaction, connection);
             updateTransaction(transaction.fail(), connection);
             connection.commit();
+            accountLedger.refundWithdrawals(List.of(transaction));
+            notifyStatusChanged(transaction);
             return transaction.status();
         } else {
             // do nothing if withdrawal is still in progress or service is unavailable
@@ -75,22 +332,30 @@ public class WithdrawCommandService extends AbstractCommandService implements IC
     }
 
     private TransactionStatus processTransaction(Transaction transaction, Connection connection) {
+        boolean debitedByLedger = false;
         try {
-            validateTransaction(transaction, connection);
-            lockInvolvedAccounts(transaction, connection);
-            subtractAmountFromPayerAccount(transaction, connection);
-
-            externalWithdrawalService.requestWithdrawal(new WithdrawalService.WithdrawalId(UUID.fromString(transaction.id())),
-                    new WithdrawalService.Address(transaction.withdrawalAddress()), transaction.amount().value());
-            logger().info("Withdrawal transaction with id = '{}' is sent to address = {}", transaction.id(), transaction.withdrawalAddress());
+            debitedByLedger = accountLedger.debitWithdrawal(transaction);
+            if (debitedByLedger) {
+                // validated against the balance kept by the ledger already, which the one in the database lags behind
+                addAmountsToAccounts(Map.of(transaction.payerAccountNumber(), transaction.amount().value().negate()), connection);
+            } else {
+                debitPayerAccount(transaction, connection);
+            }
 
+            // the withdrawal is sent from the outbox once committed, so nothing stays locked while the external service responds
             updateTransaction(transaction.await(), connection);
+            insertOutboxEntry(transaction.id(), connection);
             connection.commit();
+            notifyStatusChanged(transaction);
         } catch (Exception e) {
             logger().error("Transaction with id = '{}' failed to process", transaction.id(), e);
 
             connection.rollback();
+            if (debitedByLedger) {
+                accountLedger.refundWithdrawals(List.of(transaction));
+            }
             updateTransactionSeparately(transaction.fail(e));
+            notifyStatusChanged(transaction);
         }
 
         return transaction.status();
@@ -98,7 +363,7 @@ public class WithdrawCommandService extends AbstractCommandService implements IC
 
     private void updateTransactionSeparately(Transaction transaction) {
         try (Connection connection = sql.beginTransaction()) {
-            lockTransactionById(transaction.id(), connection);
+            lockTransactionStatusById(transaction.id(), connection);
             updateTransaction(transaction, connection);
             connection.commit();
         }
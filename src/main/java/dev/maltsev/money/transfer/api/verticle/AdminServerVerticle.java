@@ -0,0 +1,81 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.exception.InvalidClientRequestException;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import lombok.RequiredArgsConstructor;
+
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.getBodyAsJsonObject;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.handleError;
+import static io.vertx.core.http.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Serves the endpoints changing the behaviour of the server for every customer, on a listener of its own, which is bound to the loopback
+ * address by default, so that they aren't reachable by the clients of the API.
+ */
+@RequiredArgsConstructor
+public class AdminServerVerticle extends AbstractVerticle implements Loggable {
+
+    private final AdmissionControl admissionControl;
+
+    private final Parameters parameters;
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        Router router = Router.router(vertx);
+        router.route().handler(BodyHandler.create());
+        router.get("/admin/rate-limits").handler(this::handleGetRateLimitsRequest);
+        router.put("/admin/rate-limits/:type").handler(this::handleSetRateLimitRequest);
+
+        vertx.createHttpServer().requestHandler(router).listen(parameters.getAdminPort(), parameters.getAdminHost(), http -> {
+            if (http.succeeded()) {
+                startPromise.complete();
+                logger().info("Admin server started on {}:{}", parameters.getAdminHost(), parameters.getAdminPort());
+            } else {
+                startPromise.fail(http.cause());
+            }
+        });
+    }
+
+    private void handleGetRateLimitsRequest(RoutingContext context) {
+        JsonObject limits = new JsonObject();
+        for (TransactionType type : TransactionType.values()) {
+            CustomerRateLimiter rateLimiter = admissionControl.rateLimiter(type);
+            limits.put(type.name(), new JsonObject().put("rate", rateLimiter.rate()).put("burst", rateLimiter.burst()));
+        }
+        context.response().putHeader(CONTENT_TYPE, "application/json").end(limits.encode());
+    }
+
+    // Change the rate limit of every customer for a type of transactions, the buckets keep their tokens
+    private void handleSetRateLimitRequest(RoutingContext context) {
+        try {
+            TransactionType type = getTransactionType(context);
+            JsonObject body = getBodyAsJsonObject(context);
+            if (!(body.getValue("rate") instanceof Number rate) || !(body.getValue("burst") instanceof Integer burst)
+                    || rate.doubleValue() <= 0 || burst < 1) {
+                throw new InvalidClientRequestException("Rate must be a positive number and burst must be a positive integer");
+            }
+            admissionControl.rateLimiter(type).setLimit(rate.doubleValue(), burst);
+            logger().info("Rate limit of {} requests has been set to {} per second with a burst of {}", type, rate, burst);
+            handleGetRateLimitsRequest(context);
+        } catch (InvalidClientRequestException e) {
+            handleError(context, Future.failedFuture(e));
+        }
+    }
+
+    private static TransactionType getTransactionType(RoutingContext context) throws InvalidClientRequestException {
+        try {
+            return TransactionType.valueOf(context.pathParam("type").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidClientRequestException("Type must be either transfer or withdrawal");
+        }
+    }
+}
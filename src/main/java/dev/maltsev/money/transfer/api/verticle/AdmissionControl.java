@@ -0,0 +1,66 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executors of the HTTP endpoints and rate limiters of the customers. Shared by all {@link HttpServerVerticle} instances, so every
+ * limit applies to an endpoint or a customer as a whole rather than to an event loop.
+ */
+@RequiredArgsConstructor
+public class AdmissionControl {
+
+    private final BlockingExecutor executor;
+
+    private final int maxInFlight;
+
+    private final CustomerRateLimiter transferRateLimiter;
+
+    private final CustomerRateLimiter withdrawalRateLimiter;
+
+    private final Map<String, BoundedExecutor> endpoints = new ConcurrentHashMap<>();
+
+    // the verticle instances using the executor, the last one to stop closes it
+    private final AtomicInteger users = new AtomicInteger();
+
+    /**
+     * @return the executor of the endpoint with its own limit of requests in flight, metrics are named {@code http.<endpoint>.*}
+     */
+    BoundedExecutor endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, key -> new BoundedExecutor(executor, "http." + key, maxInFlight));
+    }
+
+    /**
+     * @return the underlying executor, for the work of requests that have already been admitted
+     */
+    BlockingExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * Called by every verticle instance as it starts.
+     */
+    void retain() {
+        users.incrementAndGet();
+    }
+
+    /**
+     * Called by every verticle instance as it stops, closes the executor once no instance uses it anymore.
+     */
+    void release() {
+        if (users.decrementAndGet() == 0) {
+            executor.close();
+        }
+    }
+
+    /**
+     * @return the rate limiter of the requests creating transactions of the type
+     */
+    CustomerRateLimiter rateLimiter(TransactionType type) {
+        return type == TransactionType.TRANSFER ? transferRateLimiter : withdrawalRateLimiter;
+    }
+}
@@ -0,0 +1,110 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs blocking calls off the event loop. The returned future is completed on the context of the caller, so verticles may keep using
+ * their state without synchronization.
+ */
+public interface BlockingExecutor {
+
+    <T> Future<T> execute(Callable<T> task);
+
+    /**
+     * Releases the threads of the executor once the calls running are done, the calls made afterwards fail. Must be called once the
+     * executor isn't used anymore, as Vert.x doesn't know about the threads it starts.
+     */
+    default void close() {
+    }
+
+    /**
+     * @return an executor using the default Vert.x worker pool
+     */
+    static BlockingExecutor workerPool(Vertx vertx) {
+        return new BlockingExecutor() {
+            @Override
+            public <T> Future<T> execute(Callable<T> task) {
+                return vertx.executeBlocking(task, false);
+            }
+        };
+    }
+
+    /**
+     * @return an executor using a named Vert.x worker pool of the given size
+     */
+    static BlockingExecutor workerPool(Vertx vertx, String name, int poolSize) {
+        WorkerExecutor executor = vertx.createSharedWorkerExecutor(name, poolSize);
+        return new BlockingExecutor() {
+            @Override
+            public <T> Future<T> execute(Callable<T> task) {
+                return executor.executeBlocking(task, false);
+            }
+
+            @Override
+            public void close() {
+                executor.close();
+            }
+        };
+    }
+
+    /**
+     * @return an executor starting a virtual thread per call, at most the given amount of calls run at the same time while the rest wait
+     * for a permit without holding a platform thread
+     */
+    static BlockingExecutor virtualThreads(Vertx vertx, String name, int concurrency) {
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        Semaphore permits = new Semaphore(concurrency);
+        return new BlockingExecutor() {
+            @Override
+            public <T> Future<T> execute(Callable<T> task) {
+                Context context = vertx.getOrCreateContext();
+                Promise<T> promise = Promise.promise();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            permits.acquire();
+                            try {
+                                T result = task.call();
+                                context.runOnContext(v -> promise.complete(result));
+                            } finally {
+                                permits.release();
+                            }
+                        } catch (Throwable e) {
+                            context.runOnContext(v -> promise.fail(e));
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the executor has been closed
+                    return Future.failedFuture(e);
+                }
+                return promise.future();
+            }
+
+            // doesn't wait for the running calls, so it can be called on an event loop
+            @Override
+            public void close() {
+                executor.shutdown();
+            }
+        };
+    }
+
+    /**
+     * @return an executor for the workload according to the execution mode
+     */
+    static BlockingExecutor create(Vertx vertx, ExecutionMode mode, String name, int poolSize, int concurrency) {
+        return switch (mode) {
+            case WORKER -> workerPool(vertx, name, poolSize);
+            case VIRTUAL -> virtualThreads(vertx, name, concurrency);
+        };
+    }
+}
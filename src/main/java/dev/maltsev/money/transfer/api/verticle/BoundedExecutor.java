@@ -0,0 +1,104 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.metrics.Counter;
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+import dev.maltsev.money.transfer.api.metrics.Timer;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Future;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the amount of tasks of a workload that are either running or waiting for a thread of the underlying executor. Once the limit is
+ * reached, new tasks are rejected right away with {@link OverloadedException} instead of queueing without bound.
+ * <p>
+ * Exposes {@code <name>.inFlight} and {@code <name>.queued} gauges, a {@code <name>.rejected} counter and a {@code <name>.queueTime} timer.
+ */
+public class BoundedExecutor implements BlockingExecutor {
+
+    // weight of the latest task in the moving average of latencies
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final BlockingExecutor executor;
+
+    private final String name;
+
+    private final int maxInFlight;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicLong averageLatencyNanos = new AtomicLong();
+
+    private final Counter rejected;
+
+    private final Timer queueTime;
+
+    public BoundedExecutor(BlockingExecutor executor, String name, int maxInFlight) {
+        this.executor = executor;
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.rejected = Metrics.counter(name + ".rejected");
+        this.queueTime = Metrics.timer(name + ".queueTime");
+        Metrics.gauge(name + ".inFlight", inFlight::get);
+        Metrics.gauge(name + ".queued", () -> Math.max(0, inFlight.get() - running.get()));
+    }
+
+    @Override
+    public <T> Future<T> execute(Callable<T> task) {
+        if (!tryAcquire()) {
+            return Future.failedFuture(overloaded());
+        }
+        long admitted = System.nanoTime();
+        return executor.<T>execute(() -> {
+            queueTime.record(System.nanoTime() - admitted);
+            running.incrementAndGet();
+            try {
+                return task.call();
+            } finally {
+                running.decrementAndGet();
+            }
+        }).onComplete(res -> release(admitted));
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * Takes a slot for work that is not run by {@link #execute(Callable)}, e.g. a long-running stream. The slot must be given back with
+     * {@link #release(long)}.
+     *
+     * @return false if the limit has been reached
+     */
+    boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param acquired the value of {@link System#nanoTime()} when the slot was acquired
+     */
+    void release(long acquired) {
+        inFlight.decrementAndGet();
+        long latency = System.nanoTime() - acquired;
+        averageLatencyNanos.getAndUpdate(average -> average == 0 ? latency : (long) (average + LATENCY_SMOOTHING * (latency - average)));
+    }
+
+    /**
+     * @return an exception suggesting to retry once the work in progress is expected to be done, judging by the recent latencies
+     */
+    OverloadedException overloaded() {
+        long retryAfterSeconds = Math.max(1, (long) Math.ceil(averageLatencyNanos.get() / (double) TimeUnit.SECONDS.toNanos(1)));
+        return new OverloadedException("Too many requests, %s is at its limit of %d".formatted(name, maxInFlight), retryAfterSeconds);
+    }
+}
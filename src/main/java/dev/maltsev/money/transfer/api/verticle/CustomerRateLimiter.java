@@ -0,0 +1,143 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.metrics.Counter;
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Future;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets of the customers for a single kind of request, refilled at a fixed rate up to a burst size. The limit can be changed at
+ * runtime and applies to the existing buckets right away.
+ * <p>
+ * A bucket is kept as the time at which it's going to be full again (the "theoretical arrival time" of GCRA), so taking a token is a
+ * single compare-and-set, and a full bucket is no different from a missing one. Once the maximum of buckets is reached, every new customer
+ * has a few more of them checked, continuing where the previous one stopped, and the full ones among them are evicted. A bucket that
+ * isn't full is never evicted, so a limited customer can't burst again by making up other customers. While there's no room, the requests
+ * of new customers are rejected, rather than throttled together, so that a single noisy one can't hold back every other newcomer.
+ */
+public class CustomerRateLimiter {
+
+    // the amount of buckets checked for eviction per new customer, so a single request never goes through all of them
+    static final int EVICTION_BATCH = 64;
+
+    private final String name;
+
+    private final int maxCustomers;
+
+    // customer -> System.nanoTime() at which the bucket is full
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    // where the previous eviction stopped, only used by the thread evicting
+    private Iterator<AtomicLong> evictionCursor;
+
+    private final Counter rejected;
+
+    private final Counter untracked;
+
+    private volatile Limit limit;
+
+    public CustomerRateLimiter(String name, double rate, int burst, int maxCustomers) {
+        this.name = name;
+        this.maxCustomers = maxCustomers;
+        setLimit(rate, burst);
+        this.rejected = Metrics.counter(name + ".rateLimited");
+        this.untracked = Metrics.counter(name + ".rateLimitUntracked");
+        Metrics.gauge(name + ".rateLimitBuckets", buckets::size);
+    }
+
+    /**
+     * Takes a token from the bucket of the customer.
+     *
+     * @return a succeeded future, or a future failed with {@link OverloadedException} telling when the next token is available
+     */
+    Future<Void> acquire(String customer) {
+        long now = System.nanoTime();
+        Limit current = limit;
+        AtomicLong bucket = buckets.get(customer);
+        if (bucket == null) {
+            if (buckets.size() >= maxCustomers) {
+                evictIdle(now);
+            }
+            if (buckets.size() >= maxCustomers) {
+                // every bucket is full again by the time the capacity is refilled, so there's room by then unless they are taken again
+                untracked.increment();
+                long retryAfterSeconds = Math.max(1, (long) Math.ceil(current.capacityNanos() / (double) TimeUnit.SECONDS.toNanos(1)));
+                return Future.failedFuture(new OverloadedException(
+                        "Too many requests, %s rate limits are tracked for too many customers".formatted(name), retryAfterSeconds));
+            }
+            bucket = buckets.computeIfAbsent(customer, key -> new AtomicLong(now));
+        }
+        while (true) {
+            long fullAt = bucket.get();
+            long nextFullAt = (fullAt - now > 0 ? fullAt : now) + current.intervalNanos();
+            long excess = nextFullAt - now - current.capacityNanos();
+            if (excess > 0) {
+                rejected.increment();
+                long retryAfterSeconds = Math.max(1, (long) Math.ceil(excess / (double) TimeUnit.SECONDS.toNanos(1)));
+                return Future.failedFuture(new OverloadedException(
+                        "Too many requests, customer '%s' is at its %s rate limit of %s per second".formatted(customer, name, current.rate()), retryAfterSeconds));
+            }
+            if (bucket.compareAndSet(fullAt, nextFullAt)) {
+                return Future.succeededFuture();
+            }
+        }
+    }
+
+    public void setLimit(double rate, int burst) {
+        if (rate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst must be at least 1");
+        }
+        limit = new Limit(rate, burst);
+    }
+
+    public double rate() {
+        return limit.rate();
+    }
+
+    public int burst() {
+        return limit.burst();
+    }
+
+    int size() {
+        return buckets.size();
+    }
+
+    private void evictIdle(long now) {
+        // a single thread evicts at a time, the others go on exceeding the maximum slightly meanwhile
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int checked = 0; checked < EVICTION_BATCH; checked++) {
+                if (evictionCursor == null || !evictionCursor.hasNext()) {
+                    evictionCursor = buckets.values().iterator();
+                    if (!evictionCursor.hasNext()) {
+                        return;
+                    }
+                }
+                // a token taken concurrently from a bucket being evicted is lost, which is harmless as the bucket was full
+                if (evictionCursor.next().get() - now <= 0) {
+                    evictionCursor.remove();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private record Limit(double rate, int burst, long intervalNanos, long capacityNanos) {
+
+        Limit(double rate, int burst) {
+            this(rate, burst, (long) (TimeUnit.SECONDS.toNanos(1) / rate), (long) (burst * (TimeUnit.SECONDS.toNanos(1) / rate)));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Publishes status changes of transactions to the event bus, so every {@link HttpServerVerticle} instance can notify its own clients.
+ */
+@RequiredArgsConstructor
+public class EventBusTransactionListener implements ITransactionListener {
+
+    /**
+     * Event bus address where {@code {"transactionId", "payer", "type", "status"}} is published on every status change.
+     */
+    public static final String TRANSACTION_STATUS_ADDRESS = "TRANSACTION_STATUS";
+
+    private final Vertx vertx;
+
+    @Override
+    public void onStatusChanged(Transaction transaction) {
+        vertx.eventBus().publish(TRANSACTION_STATUS_ADDRESS, new JsonObject()
+                .put("transactionId", transaction.id())
+                .put("payer", transaction.payer())
+                .put("type", transaction.type().name())
+                .put("status", transaction.status().name()));
+    }
+}
@@ -0,0 +1,15 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+/**
+ * Defines the threads blocking calls to the database and to the downstream services are made from.
+ */
+public enum ExecutionMode {
+    /**
+     * Vert.x worker pools with a fixed amount of platform threads.
+     */
+    WORKER,
+    /**
+     * A virtual thread per call, with the amount of simultaneous calls limited per workload.
+     */
+    VIRTUAL
+}
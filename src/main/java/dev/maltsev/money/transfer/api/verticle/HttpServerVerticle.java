@@ -2,16 +2,22 @@ package dev.maltsev.money.transfer.api.verticle;
 
 import dev.maltsev.money.transfer.api.Parameters;
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.Request;
 import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
 import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
 import dev.maltsev.money.transfer.api.domain.object.TransactionType;
 import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.metrics.Metrics;
 import dev.maltsev.money.transfer.api.service.ICommandService;
 import dev.maltsev.money.transfer.api.service.IQueryService;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.exception.InvalidClientRequestException;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
-import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
@@ -22,22 +28,39 @@ import lombok.SneakyThrows;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.createTransactions;
 import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.deserialize;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.dispatch;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.getBodyAsJsonArray;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.getWaitTime;
 import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.handleError;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.isSyncMode;
+import static dev.maltsev.money.transfer.api.verticle.EventBusTransactionListener.TRANSACTION_STATUS_ADDRESS;
 import static io.vertx.core.http.HttpHeaders.CONTENT_TYPE;
 
 @RequiredArgsConstructor
 public class HttpServerVerticle extends AbstractVerticle implements Loggable {
 
-    private final ICommandService transferCommandService;
+    private final ITransferCommandService transferCommandService;
 
     private final ICommandService withdrawCommandService;
 
     private final IQueryService queryService;
 
+    private final AdmissionControl admissionControl;
+
     private final Parameters parameters;
 
+    private static final long EVENT_STREAM_HEARTBEAT_INTERVAL = 15_000;
+
+    // transactionId -> status requests waiting for the transaction to be finished, accessed from the event loop of this instance only
+    private final Map<String, List<Promise<TransactionStatus>>> statusWaiters = new HashMap<>();
+
     @SneakyThrows
     private static void handleSwagger(RoutingContext routingContext) {
         routingContext.response()
@@ -45,37 +68,48 @@ public class HttpServerVerticle extends AbstractVerticle implements Loggable {
                 .end(Files.readString(Paths.get("src/main/resources/swagger.yaml")));
     }
 
+    private static void handleMetrics(RoutingContext routingContext) {
+        routingContext.response()
+                .putHeader(CONTENT_TYPE, "application/json")
+                .end(new JsonObject(Metrics.snapshot()).encode());
+    }
+
     @Override
     public void start(Promise<Void> startPromise) {
+        admissionControl.retain();
         Router router = Router.router(vertx);
+        TransactionEventStream eventStream = new TransactionEventStream(parameters.getEventStreamWriteQueueSize());
 
         router.route().handler(StaticHandler.create());
+        // imports stream the request body themselves, so they have to be routed before the body handler buffers it
+        router.postWithRegex("/customers/(?<customer>[^/]+)/transfers(?::|%3[Aa])import")
+                .handler(context -> handleImportRequest(context, "transferImport", TransactionType.TRANSFER, TransferRequest.class,
+                        transferCommandService));
+        router.postWithRegex("/customers/(?<customer>[^/]+)/withdrawals(?::|%3[Aa])import")
+                .handler(context -> handleImportRequest(context, "withdrawalImport", TransactionType.WITHDRAWAL, WithdrawRequest.class,
+                        withdrawCommandService));
         router.route().handler(BodyHandler.create());
         router.post("/customers/:customer/transfer").handler(this::handleTransferRequest);
+        // the colon is a part of the path here (possibly percent-encoded), so a regular expression is used instead of a path parameter pattern
+        router.postWithRegex("/customers/(?<customer>[^/]+)/transfers(?::|%3[Aa])batch").handler(this::handleBatchTransferRequest);
         router.post("/customers/:customer/withdraw").handler(this::handleWithdrawRequest);
+        router.get("/customers/:customer/transactions/stream").handler(eventStream::subscribe);
         router.get("/customers/:customer/transactions/:transactionId/status").handler(this::handleGetTransactionStatusRequest);
         router.get("/swagger.yaml").handler(HttpServerVerticle::handleSwagger);
+        router.get("/metrics").handler(HttpServerVerticle::handleMetrics);
 
-        createHttpServer(startPromise, router);
+        vertx.eventBus().<JsonObject>consumer(TRANSACTION_STATUS_ADDRESS, message -> {
+            notifyStatusWaiters(message.body());
+            eventStream.publish(message.body());
+        });
+        vertx.setPeriodic(EVENT_STREAM_HEARTBEAT_INTERVAL, id -> eventStream.heartbeat());
 
-        // Start background tasks for processing transactions
-        runTransfersInBackground();
-        runWithdrawalsInBackground();
-        runPeriodicRecoverStuckTransactionWatcherInBackground();
+        createHttpServer(startPromise, router);
     }
 
-    // Periodically check for stuck transactions and attempt to recover them
-    private void runPeriodicRecoverStuckTransactionWatcherInBackground() {
-        vertx.setPeriodic(parameters.getRecoveryInterval(), id -> {
-            vertx.executeBlocking(() -> {
-                recoverStuckTransactions();
-                return null;
-            }, false).onComplete(res -> {
-                if (res.failed()) {
-                    logger().error("Failed to recover stuck transactions: {}", res.cause().getMessage());
-                }
-            });
-        });
+    @Override
+    public void stop() {
+        admissionControl.release();
     }
 
     private void createHttpServer(Promise<Void> startPromise, Router router) {
@@ -89,93 +123,185 @@ public class HttpServerVerticle extends AbstractVerticle implements Loggable {
         });
     }
 
-    // Process withdrawal requests in background worker threads
-    private void runWithdrawalsInBackground() {
-        WorkerExecutor withdrawalExecutor = vertx.createSharedWorkerExecutor("withdrawal-worker-pool", parameters.getWithdrawalWorkerPoolSize());
-        vertx.eventBus().consumer(TransactionType.WITHDRAWAL.name(), message -> {
-            withdrawalExecutor.executeBlocking(() -> {
-                String transactionId = (String) message.body();
-                TransactionStatus status = withdrawCommandService.executeTransaction(transactionId);
-                if (status == TransactionStatus.AWAITING) {
-                    vertx.setTimer(1000, id -> vertx.eventBus().publish(TransactionType.WITHDRAWAL.name(), transactionId));
-                }
-                return null;
-            }, false).onComplete(res -> {
-                if (res.failed()) {
-                    logger().error("Failed to process withdrawal request: {}", res.cause().getMessage());
-                }
-            });
-        });
+    // Create and save transaction for transfer requests in background thread
+    private void handleTransferRequest(RoutingContext context) {
+        String customerLogin = context.request().getParam("customer");
+        try {
+            if (isSyncMode(context)) {
+                handleSyncTransferRequest(context, customerLogin);
+                return;
+            }
+        } catch (InvalidClientRequestException e) {
+            handleError(context, Future.failedFuture(e));
+            return;
+        }
+        admissionControl.rateLimiter(TransactionType.TRANSFER).acquire(customerLogin)
+                .compose(v -> admissionControl.endpoint("transfer").execute(() -> {
+                    TransferRequest request = deserialize(context, TransferRequest.class);
+                    Transaction transaction = request.toTransaction(customerLogin);
+                    return TransactionResult.of(transaction, transferCommandService.createTransaction(transaction));
+                }))
+                .onComplete(res -> {
+                    if (res.succeeded()) {
+                        context.response().putHeader(CONTENT_TYPE, "application/json")
+                                .end(new JsonObject().put("transactionId", res.result().transactionId()).encode());
+                        dispatch(vertx.eventBus(), TransactionType.TRANSFER, List.of(res.result()));
+                    } else {
+                        handleError(context, res);
+                    }
+                });
     }
 
-    // Process transfer requests in background worker threads
-    private void runTransfersInBackground() {
-        WorkerExecutor transferExecutor = vertx.createSharedWorkerExecutor("transfer-worker-pool", parameters.getTransferWorkerPoolSize());
-        vertx.eventBus().consumer(TransactionType.TRANSFER.name(), message -> {
-            transferExecutor.executeBlocking(() -> {
-                String transactionId = (String) message.body();
-                transferCommandService.executeTransaction(transactionId);
-                return null;
-            }, false).onComplete(res -> {
-                if (res.failed()) {
-                    logger().error("Failed to process transfer request: {}", res.cause().getMessage());
-                }
-            });
-        });
+    // Create and execute transaction for transfer requests in background thread, responding with its status rather than its ID only
+    private void handleSyncTransferRequest(RoutingContext context, String customerLogin) {
+        admissionControl.rateLimiter(TransactionType.TRANSFER).acquire(customerLogin)
+                .compose(v -> admissionControl.endpoint("syncTransfer").execute(() -> {
+                    TransferRequest request = deserialize(context, TransferRequest.class);
+                    return transferCommandService.createAndExecuteTransaction(request.toTransaction(customerLogin));
+                }))
+                .onComplete(res -> {
+                    if (res.succeeded()) {
+                        Transaction transaction = res.result();
+                        sendTransactionStatus(context, transaction.id(), transaction.status());
+                        // left to the workers, as it couldn't be executed right away
+                        if (transaction.status() == TransactionStatus.PROCESSING) {
+                            vertx.eventBus().publish(TransactionType.TRANSFER.name(), transaction.id());
+                        }
+                    } else {
+                        handleError(context, res);
+                    }
+                });
     }
 
-    // Create and save transaction for transfer requests in background worker thread
-    private void handleTransferRequest(RoutingContext context) {
+    // Create and save transactions for a batch of transfer requests in background thread
+    private void handleBatchTransferRequest(RoutingContext context) {
         String customerLogin = context.request().getParam("customer");
-        vertx.executeBlocking(() -> {
-            TransferRequest request = deserialize(context, TransferRequest.class);
-            Transaction transaction = request.toTransaction(customerLogin);
-            return transferCommandService.createTransaction(transaction);
-        }, false).onComplete(res -> {
-            if (res.succeeded()) {
-                String transactionId = res.result();
-                context.response().putHeader(CONTENT_TYPE, "application/json").end(new JsonObject().put("transactionId", transactionId).encode());
-                vertx.eventBus().publish(TransactionType.TRANSFER.name(), transactionId);
-            } else {
-                handleError(context, res);
-            }
-        });
+        // a batch takes a single token, as it's limited in size and created within a single database transaction anyway
+        admissionControl.rateLimiter(TransactionType.TRANSFER).acquire(customerLogin)
+                .compose(v -> admissionControl.endpoint("batch").execute(() -> createTransfers(getBodyAsJsonArray(context), customerLogin)))
+                .onComplete(res -> {
+                    if (res.succeeded()) {
+                        JsonArray results = new JsonArray();
+                        res.result().forEach(result -> results.add(result.succeeded()
+                                ? new JsonObject().put("transactionId", result.transactionId())
+                                : new JsonObject().put("message", result.errorMessage())));
+                        context.response().putHeader(CONTENT_TYPE, "application/json")
+                                .end(new JsonObject().put("results", results).encode());
+                        dispatch(vertx.eventBus(), TransactionType.TRANSFER, res.result());
+                    } else {
+                        handleError(context, res);
+                    }
+                });
+    }
+
+    private List<TransactionResult> createTransfers(JsonArray requests, String customerLogin) throws InvalidClientRequestException {
+        if (requests.isEmpty() || requests.size() > parameters.getMaxBatchSize()) {
+            throw new InvalidClientRequestException("Batch size must be between 1 and %d".formatted(parameters.getMaxBatchSize()));
+        }
+
+        return createTransactions(requests.stream().toList(), TransferRequest.class, customerLogin, transferCommandService);
+    }
+
+    // Create and save transactions for an NDJSON stream of requests chunk by chunk in background threads
+    private void handleImportRequest(RoutingContext context, String endpoint, TransactionType type, Class<? extends Request> requestClass,
+                                     ICommandService commandService) {
+        // an import takes a single token and holds its slot until the whole stream is handled, while its chunks are not limited separately
+        Future<Void> token = admissionControl.rateLimiter(type).acquire(context.pathParam("customer"));
+        if (token.failed()) {
+            handleError(context, token);
+            return;
+        }
+        BoundedExecutor importExecutor = admissionControl.endpoint(endpoint);
+        if (!importExecutor.tryAcquire()) {
+            handleError(context, Future.failedFuture(importExecutor.overloaded()));
+            return;
+        }
+        long acquired = System.nanoTime();
+        Promise<Void> finished = Promise.promise();
+        context.response().endHandler(v -> finished.tryComplete()).closeHandler(v -> finished.tryComplete());
+        finished.future().onComplete(v -> importExecutor.release(acquired));
+
+        new NdjsonImportHandler(vertx, admissionControl.executor(), context, type, requestClass, commandService,
+                parameters.getImportChunkSize()).start();
     }
 
-    // Create and save transaction for withdrawal requests in background worker thread
+    // Create and save transaction for withdrawal requests in background thread
     private void handleWithdrawRequest(RoutingContext context) {
         String customerLogin = context.request().getParam("customer");
-        vertx.executeBlocking(() -> {
-            WithdrawRequest request = deserialize(context, WithdrawRequest.class);
-            Transaction transaction = request.toTransaction(customerLogin);
-            return withdrawCommandService.createTransaction(transaction);
-        }, false).onComplete(res -> {
-            if (res.succeeded()) {
-                String transactionId = res.result();
-                context.response().putHeader(CONTENT_TYPE, "application/json").end(new JsonObject().put("transactionId", transactionId).encode());
-                vertx.eventBus().publish(TransactionType.WITHDRAWAL.name(), transactionId);
-            } else {
-                handleError(context, res);
-            }
-        });
+        admissionControl.rateLimiter(TransactionType.WITHDRAWAL).acquire(customerLogin)
+                .compose(v -> admissionControl.endpoint("withdraw").execute(() -> {
+                    WithdrawRequest request = deserialize(context, WithdrawRequest.class);
+                    Transaction transaction = request.toTransaction(customerLogin);
+                    return TransactionResult.of(transaction, withdrawCommandService.createTransaction(transaction));
+                }))
+                .onComplete(res -> {
+                    if (res.succeeded()) {
+                        context.response().putHeader(CONTENT_TYPE, "application/json")
+                                .end(new JsonObject().put("transactionId", res.result().transactionId()).encode());
+                        dispatch(vertx.eventBus(), TransactionType.WITHDRAWAL, List.of(res.result()));
+                    } else {
+                        handleError(context, res);
+                    }
+                });
     }
 
+    // Respond with the status of the transaction, optionally waiting up to waitMs for it to become terminal without holding a thread
     private void handleGetTransactionStatusRequest(RoutingContext context) {
         String transactionId = context.request().getParam("transactionId");
         String customerLogin = context.request().getParam("customer");
-        vertx.executeBlocking(() -> queryService.getTransactionStatus(transactionId, customerLogin), false).onComplete(res -> {
-            if (res.succeeded()) {
-                context.response().putHeader(CONTENT_TYPE, "application/json")
-                        .end(new JsonObject().put("transactionId", transactionId).put("status", res.result().name()).encode());
-            } else {
+        long waitTime;
+        try {
+            waitTime = getWaitTime(context, parameters.getMaxStatusWaitTime());
+        } catch (InvalidClientRequestException e) {
+            handleError(context, Future.failedFuture(e));
+            return;
+        }
+
+        // the waiter is registered before the status is read, so a notification sent in between is not missed
+        Promise<TransactionStatus> terminalStatus = Promise.promise();
+        if (waitTime > 0) {
+            statusWaiters.computeIfAbsent(transactionId, id -> new ArrayList<>()).add(terminalStatus);
+        }
+        admissionControl.endpoint("status").execute(() -> queryService.getTransactionStatus(transactionId, customerLogin)).onComplete(res -> {
+            if (res.failed()) {
+                removeStatusWaiter(transactionId, terminalStatus);
                 handleError(context, res);
+            } else if (waitTime == 0 || res.result().isTerminal()) {
+                removeStatusWaiter(transactionId, terminalStatus);
+                sendTransactionStatus(context, transactionId, res.result());
+            } else {
+                long timerId = vertx.setTimer(waitTime, id -> terminalStatus.tryComplete(res.result()));
+                context.response().closeHandler(v -> terminalStatus.tryFail("Connection has been closed"));
+                terminalStatus.future().onComplete(status -> {
+                    vertx.cancelTimer(timerId);
+                    removeStatusWaiter(transactionId, terminalStatus);
+                    if (status.succeeded()) {
+                        sendTransactionStatus(context, transactionId, status.result());
+                    }
+                });
+            }
+        });
+    }
+
+    private void notifyStatusWaiters(JsonObject statusChange) {
+        TransactionStatus status = TransactionStatus.valueOf(statusChange.getString("status"));
+        if (status.isTerminal()) {
+            List<Promise<TransactionStatus>> waiters = statusWaiters.remove(statusChange.getString("transactionId"));
+            if (waiters != null) {
+                waiters.forEach(waiter -> waiter.tryComplete(status));
             }
+        }
+    }
+
+    private void removeStatusWaiter(String transactionId, Promise<TransactionStatus> waiter) {
+        statusWaiters.computeIfPresent(transactionId, (id, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
         });
     }
 
-    // Recover stuck transactions by re-publishing them to the event bus
-    public void recoverStuckTransactions() {
-        queryService.getAllStuckTransactions()
-                .forEach(transaction -> vertx.eventBus().publish(transaction.type().name(), transaction.id()));
+    private static void sendTransactionStatus(RoutingContext context, String transactionId, TransactionStatus status) {
+        context.response().putHeader(CONTENT_TYPE, "application/json")
+                .end(new JsonObject().put("transactionId", transactionId).put("status", status.name()).encode());
     }
 }
@@ -1,45 +1,241 @@
 package dev.maltsev.money.transfer.api.verticle;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DatabindException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.Request;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.service.ICommandService;
 import dev.maltsev.money.transfer.api.service.exception.InvalidClientRequestException;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
 import io.vertx.ext.web.RequestBody;
 import io.vertx.ext.web.RoutingContext;
 import lombok.NoArgsConstructor;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static lombok.AccessLevel.PRIVATE;
 
 @NoArgsConstructor(access = PRIVATE)
 public class HttpServerVerticleUtils {
+
+    // readers are immutable and thread-safe, caching them saves looking up the deserializers on every request
+    private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
     static <T> T deserialize(RoutingContext context, Class<T> objectClass) throws InvalidClientRequestException {
-        JsonObject jsonBody = getBodyAsJsonObject(context);
+        Buffer body = getBody(context).buffer();
+        return readValue(body, objectClass, "Request body is not valid JSON", "Request body is not valid JSON");
+    }
+
+    static <T> T deserialize(Object json, Class<T> objectClass) throws InvalidClientRequestException {
+        if (json instanceof Buffer buffer) {
+            return readValue(buffer, objectClass, "Request item is not valid JSON", "Request item is not a JSON object");
+        }
+        if (!(json instanceof JsonObject jsonObject)) {
+            throw new InvalidClientRequestException("Request item is not a JSON object");
+        }
         try {
-            return jsonBody.mapTo(objectClass);
+            return jsonObject.mapTo(objectClass);
         } catch (Exception e) {
             throw new InvalidClientRequestException(e.getMessage());
         }
     }
 
-    private static JsonObject getBodyAsJsonObject(RoutingContext context) throws InvalidClientRequestException {
+    // Binds the object right from the bytes with a streaming parser, without building an intermediate JSON tree
+    private static <T> T readValue(Buffer buffer, Class<T> objectClass, String invalidJsonMessage, String notObjectMessage)
+            throws InvalidClientRequestException {
+        ObjectReader reader = READERS.computeIfAbsent(objectClass, key -> DatabindCodec.mapper().readerFor(key));
+        try (JsonParser parser = createParser(reader, buffer)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new InvalidClientRequestException(notObjectMessage);
+            }
+            T value = reader.readValue(parser);
+            if (parser.nextToken() != null) {
+                throw new InvalidClientRequestException(invalidJsonMessage);
+            }
+            return value;
+        } catch (DatabindException e) {
+            // keep the message the same as the one of binding a JSON object, i.e. without the location in the source
+            e.clearLocation();
+            throw new InvalidClientRequestException(e.getMessage());
+        } catch (IOException e) {
+            throw new InvalidClientRequestException(invalidJsonMessage);
+        }
+    }
+
+    /**
+     * Deserializes every item independently and creates transactions for the valid ones together, so an invalid item only fails itself.
+     *
+     * @param items JSON values or raw buffers of the requests
+     * @return the results in the same order as the given items
+     */
+    static List<TransactionResult> createTransactions(List<?> items, Class<? extends Request> requestClass, String customerLogin,
+                                                      ICommandService commandService) {
+        // invalid requests are answered in place, while valid ones are created together keeping their positions
+        TransactionResult[] results = new TransactionResult[items.size()];
+        List<Integer> positions = new ArrayList<>();
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                Request request = deserialize(items.get(i), requestClass);
+                transactions.add(request.toTransaction(customerLogin));
+                positions.add(i);
+            } catch (InvalidClientRequestException e) {
+                results[i] = TransactionResult.failure(e.getMessage());
+            }
+        }
+
+        List<TransactionResult> created = transactions.isEmpty() ? List.of() : commandService.createTransactions(transactions);
+        for (int i = 0; i < created.size(); i++) {
+            results[positions.get(i)] = created.get(i);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static JsonParser createParser(ObjectReader reader, Buffer buffer) throws IOException {
+        return reader.createParser(new BufferInputStream(buffer));
+    }
+
+    /**
+     * Publishes the transactions to be executed once each, handing the created ones over as they are and the existing ones by their IDs.
+     */
+    static void dispatch(EventBus eventBus, TransactionType type, List<TransactionResult> results) {
+        Set<String> dispatched = new HashSet<>();
+        for (TransactionResult result : results) {
+            if (result.succeeded() && dispatched.add(result.transactionId())) {
+                eventBus.publish(type.name(), result.createdTransaction() != null ? result.createdTransaction() : result.transactionId());
+            }
+        }
+    }
+
+    static JsonArray getBodyAsJsonArray(RoutingContext context) throws InvalidClientRequestException {
+        RequestBody body = getBody(context);
+        try {
+            return body.asJsonArray();
+        } catch (DecodeException | ClassCastException e) {
+            throw new InvalidClientRequestException("Request body is not valid JSON array");
+        }
+    }
+
+    static JsonObject getBodyAsJsonObject(RoutingContext context) throws InvalidClientRequestException {
+        RequestBody body = getBody(context);
+        try {
+            return body.asJsonObject();
+        } catch (DecodeException | ClassCastException e) {
+            throw new InvalidClientRequestException("Request body is not valid JSON object");
+        }
+    }
+
+    private static RequestBody getBody(RoutingContext context) throws InvalidClientRequestException {
         RequestBody body = context.body();
         if (body == null || body.isEmpty()) {
             throw new InvalidClientRequestException("Request body is required");
         }
+        return body;
+    }
 
+    /**
+     * @return the time in milliseconds the request is willing to wait for, limited by the given maximum, or zero if it doesn't want to wait
+     */
+    static long getWaitTime(RoutingContext context, long maxWaitTime) throws InvalidClientRequestException {
+        String waitMs = context.request().getParam("waitMs");
+        if (waitMs == null) {
+            return 0;
+        }
+        long waitTime;
         try {
-            return body.asJsonObject();
-        } catch (DecodeException e) {
-            throw new InvalidClientRequestException("Request body is not valid JSON");
+            waitTime = Long.parseLong(waitMs);
+        } catch (NumberFormatException e) {
+            waitTime = -1;
+        }
+        if (waitTime < 0) {
+            throw new InvalidClientRequestException("waitMs must be a non-negative integer");
+        }
+        return Math.min(waitTime, maxWaitTime);
+    }
+
+    /**
+     * @return whether the request wants the transaction to be executed before the response rather than in background
+     */
+    static boolean isSyncMode(RoutingContext context) throws InvalidClientRequestException {
+        String mode = context.request().getParam("mode");
+        if (mode == null || mode.equals("async")) {
+            return false;
+        }
+        if (mode.equals("sync")) {
+            return true;
         }
+        throw new InvalidClientRequestException("mode must be either sync or async");
     }
 
     static void handleError(RoutingContext context, AsyncResult<?> res) {
-        if (res.cause() instanceof InvalidClientRequestException) {
+        if (res.cause() instanceof OverloadedException e) {
+            context.response().setStatusCode(429).putHeader("Retry-After", String.valueOf(e.retryAfterSeconds()))
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("message", e.getMessage()).encode());
+        } else if (res.cause() instanceof InvalidClientRequestException) {
             context.response().setStatusCode(400).putHeader("content-type", "application/json")
                     .end(new JsonObject().put("message", res.cause().getMessage()).encode());
         } else {
             context.response().setStatusCode(500).putHeader("content-type", "application/text").send("Internal Server Error");
         }
     }
+
+    /**
+     * Reads the buffer in the chunks the parser asks for, so the body is copied into the parser's own read buffer only rather than into an
+     * array of its size first.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        private final Buffer buffer;
+
+        private int position;
+
+        private BufferInputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return position < buffer.length() ? buffer.getByte(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int available = buffer.length() - position;
+            if (available <= 0) {
+                return -1;
+            }
+            int read = Math.min(length, available);
+            buffer.getBytes(position, position + read, bytes, offset);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.length() - position;
+        }
+    }
 }
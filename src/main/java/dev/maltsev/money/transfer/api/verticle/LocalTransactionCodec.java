@@ -0,0 +1,38 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+/**
+ * Hands a {@link Transaction} over to the consumers of the local event bus as is, so the processor doesn't have to load a transaction that
+ * has just been created. The transaction is not copied, so it must not be changed by the sender once it's been sent. Transactions can't be
+ * sent over a clustered event bus, where the ID should be sent instead.
+ */
+public class LocalTransactionCodec implements MessageCodec<Transaction, Transaction> {
+
+    @Override
+    public void encodeToWire(Buffer buffer, Transaction transaction) {
+        throw new UnsupportedOperationException("Transactions can be sent to local consumers only");
+    }
+
+    @Override
+    public Transaction decodeFromWire(int pos, Buffer buffer) {
+        throw new UnsupportedOperationException("Transactions can be sent to local consumers only");
+    }
+
+    @Override
+    public Transaction transform(Transaction transaction) {
+        return transaction;
+    }
+
+    @Override
+    public String name() {
+        return "local-transaction";
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -0,0 +1,183 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.json.Request;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.ICommandService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
+import io.vertx.ext.web.RoutingContext;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.createTransactions;
+import static dev.maltsev.money.transfer.api.verticle.HttpServerVerticleUtils.dispatch;
+import static io.vertx.core.http.HttpHeaders.CONTENT_TYPE;
+
+/**
+ * Streams a newline-delimited JSON request into transactions without buffering the whole body. Lines are parsed as they arrive and created
+ * in chunks of a fixed size, one chunk at a time. The request is paused while a full chunk waits for the previous one to be saved or while
+ * the client doesn't read the results fast enough. Every non-blank line is answered with a result line in the same order.
+ */
+class NdjsonImportHandler implements Loggable {
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Vertx vertx;
+
+    private final BlockingExecutor executor;
+
+    private final RoutingContext context;
+
+    private final TransactionType type;
+
+    private final Class<? extends Request> requestClass;
+
+    private final ICommandService commandService;
+
+    private final int chunkSize;
+
+    private final String customerLogin;
+
+    private final RecordParser parser;
+
+    private List<Line> pending = new ArrayList<>();
+
+    private int lineNumber;
+
+    private boolean processing;
+
+    private boolean ended;
+
+    NdjsonImportHandler(Vertx vertx, BlockingExecutor executor, RoutingContext context, TransactionType type,
+                        Class<? extends Request> requestClass, ICommandService commandService, int chunkSize) {
+        this.vertx = vertx;
+        this.executor = executor;
+        this.context = context;
+        this.type = type;
+        this.requestClass = requestClass;
+        this.commandService = commandService;
+        this.chunkSize = chunkSize;
+        this.customerLogin = context.pathParam("customer");
+        this.parser = RecordParser.newDelimited("\n", context.request()).maxRecordSize(MAX_LINE_LENGTH);
+    }
+
+    void start() {
+        context.response().setChunked(true).putHeader(CONTENT_TYPE, "application/x-ndjson");
+        parser.handler(this::handleLine);
+        parser.exceptionHandler(this::handleException);
+        parser.endHandler(v -> {
+            ended = true;
+            if (!processing) {
+                proceed();
+            }
+        });
+        context.request().resume();
+    }
+
+    private void handleLine(Buffer line) {
+        lineNumber++;
+        if (line.toString().isBlank()) {
+            return;
+        }
+        pending.add(new Line(lineNumber, line));
+        if (pending.size() >= chunkSize) {
+            if (processing) {
+                // the previous chunk is still being saved, so stop reading until it's done
+                parser.pause();
+            } else {
+                processPending();
+            }
+        }
+    }
+
+    private void processPending() {
+        List<Line> chunk = pending;
+        pending = new ArrayList<>();
+        processing = true;
+        List<Buffer> contents = chunk.stream().map(Line::content).toList();
+        executor.execute(() -> createTransactions(contents, requestClass, customerLogin, commandService)).onComplete(res -> {
+            processing = false;
+            HttpServerResponse response = context.response();
+            if (response.closed() || response.ended()) {
+                logger().info("Import of {} stopped at line {} as the request has been aborted", type, chunk.get(chunk.size() - 1).number());
+                return;
+            }
+            writeResults(chunk, res);
+            if (response.writeQueueFull()) {
+                // the client reads results slower than they are produced
+                parser.pause();
+                response.drainHandler(v -> proceed());
+            } else {
+                proceed();
+            }
+        });
+    }
+
+    private void writeResults(List<Line> chunk, AsyncResult<List<TransactionResult>> res) {
+        if (res.failed()) {
+            logger().error("Failed to import {} lines {}-{}: {}", type, chunk.get(0).number(), chunk.get(chunk.size() - 1).number(),
+                    res.cause().getMessage());
+        }
+        Buffer buffer = Buffer.buffer();
+        for (int i = 0; i < chunk.size(); i++) {
+            JsonObject line = new JsonObject().put("line", chunk.get(i).number());
+            if (res.failed()) {
+                line.put("message", "Internal Server Error");
+            } else if (res.result().get(i).succeeded()) {
+                line.put("transactionId", res.result().get(i).transactionId());
+            } else {
+                line.put("message", res.result().get(i).errorMessage());
+            }
+            buffer.appendString(line.encode()).appendString("\n");
+        }
+        context.response().write(buffer);
+
+        if (res.succeeded()) {
+            dispatch(vertx.eventBus(), type, res.result());
+        }
+    }
+
+    private void proceed() {
+        if (pending.size() >= chunkSize || ended && !pending.isEmpty()) {
+            processPending();
+        } else if (ended) {
+            context.response().end();
+        } else {
+            parser.resume();
+        }
+    }
+
+    private void handleException(Throwable e) {
+        logger().error("Failed to read {} import at line {}: {}", type, lineNumber + 1, e.getMessage());
+        HttpServerResponse response = context.response();
+        if (!response.closed() && !response.ended()) {
+            // the rest of the body is not going to be read, so the connection can't be reused
+            response.end(new JsonObject().put("line", lineNumber + 1).put("message", "Line could not be read").encode() + "\n")
+                    .onComplete(v -> context.request().connection().close());
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class Line {
+
+        private final int number;
+
+        private final Buffer content;
+
+        int number() {
+            return number;
+        }
+
+        Buffer content() {
+            return content;
+        }
+    }
+}
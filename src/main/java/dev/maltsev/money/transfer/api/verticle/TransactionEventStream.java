@@ -0,0 +1,83 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import lombok.RequiredArgsConstructor;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server-Sent Events feeds of status changes of the transactions of a payer. Belongs to a single {@link HttpServerVerticle} instance and
+ * must be accessed from its event loop only.
+ * <p>
+ * The write queue of every connection is limited, and a client that doesn't read events fast enough to keep it from filling up is
+ * disconnected instead of buffering events for it.
+ */
+@RequiredArgsConstructor
+class TransactionEventStream implements Loggable {
+
+    private static final Buffer HEARTBEAT = Buffer.buffer(":\n\n");
+
+    private final int writeQueueMaxSize;
+
+    // payer -> responses of the connected clients
+    private final Map<String, Set<HttpServerResponse>> subscribers = new HashMap<>();
+
+    void subscribe(RoutingContext context) {
+        String payer = context.pathParam("customer");
+        HttpServerResponse response = context.response()
+                .setChunked(true)
+                .setWriteQueueMaxSize(writeQueueMaxSize)
+                .putHeader("Content-Type", "text/event-stream")
+                .putHeader("Cache-Control", "no-cache");
+        subscribers.computeIfAbsent(payer, key -> new LinkedHashSet<>()).add(response);
+        response.closeHandler(v -> unsubscribe(payer, response));
+        // send the headers right away, so the client knows the stream is open
+        response.write(HEARTBEAT);
+    }
+
+    /**
+     * Sends the status change to every client of the payer of the transaction.
+     */
+    void publish(JsonObject statusChange) {
+        Set<HttpServerResponse> responses = subscribers.get(statusChange.getString("payer"));
+        if (responses == null) {
+            return;
+        }
+        JsonObject data = statusChange.copy();
+        data.remove("payer");
+        Buffer event = Buffer.buffer("event: status\ndata: ").appendString(data.encode()).appendString("\n\n");
+        List.copyOf(responses).forEach(response -> write(statusChange.getString("payer"), response, event));
+    }
+
+    /**
+     * Keeps idle connections from being closed by proxies and detects clients that have gone away.
+     */
+    void heartbeat() {
+        Map.copyOf(subscribers).forEach((payer, responses) -> List.copyOf(responses).forEach(response -> write(payer, response, HEARTBEAT)));
+    }
+
+    private void write(String payer, HttpServerResponse response, Buffer event) {
+        if (response.writeQueueFull()) {
+            logger().info("Closing event stream of payer = '{}' as the client doesn't keep up with events", payer);
+            unsubscribe(payer, response);
+            response.reset();
+        } else {
+            response.write(event);
+        }
+    }
+
+    private void unsubscribe(String payer, HttpServerResponse response) {
+        subscribers.computeIfPresent(payer, (key, responses) -> {
+            responses.remove(response);
+            return responses.isEmpty() ? null : responses;
+        });
+    }
+}
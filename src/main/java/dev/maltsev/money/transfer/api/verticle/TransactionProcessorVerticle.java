@@ -0,0 +1,164 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.service.IQueryService;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Promise;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes transactions published by {@link HttpServerVerticle} instances. Must be deployed exactly once per Vert.x instance, so the
+ * recovery timer is not multiplied by the amount of HTTP server instances.
+ */
+@RequiredArgsConstructor
+public class TransactionProcessorVerticle extends AbstractVerticle implements Loggable {
+
+    private final ITransferCommandService transferCommandService;
+
+    private final IWithdrawCommandService withdrawCommandService;
+
+    private final IQueryService queryService;
+
+    private final BlockingExecutor transferExecutor;
+
+    private final BlockingExecutor withdrawalExecutor;
+
+    private final Parameters parameters;
+
+    private WithdrawalPoller withdrawalPoller;
+
+    private WithdrawalDispatcher withdrawalDispatcher;
+
+    private TransactionRecovery transactionRecovery;
+
+    private TransferLane[] transferLanes;
+
+    private long stripeCompactionTimerId = -1;
+
+    // IDs of the processing transactions received and not executed yet, which the recovery skips
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        withdrawalPoller = new WithdrawalPoller(vertx, withdrawCommandService, queryService, withdrawalExecutor,
+                parameters.getWithdrawalPollInterval(), parameters.getWithdrawalPollMaxInterval(),
+                parameters.getWithdrawalPollBatchSize());
+        withdrawalPoller.start();
+        withdrawalDispatcher = new WithdrawalDispatcher(vertx, withdrawCommandService, withdrawalExecutor, withdrawalPoller,
+                parameters.getWithdrawalDispatchBatchSize(), parameters.getWithdrawalDispatchInterval());
+        withdrawalDispatcher.start();
+        transferLanes = new TransferLane[Math.max(1, parameters.getTransferLanes())];
+        for (int i = 0; i < transferLanes.length; i++) {
+            transferLanes[i] = new TransferLane(vertx, transferCommandService, transferExecutor, parameters.getTransferBatchSize(),
+                    parameters.getTransferBatchDelay(), inFlight::remove);
+        }
+
+        // Start background tasks for processing transactions
+        runTransfersInBackground();
+        runWithdrawalsInBackground();
+        transactionRecovery = new TransactionRecovery(vertx, queryService, withdrawalPoller, inFlight::contains,
+                parameters.getRecoveryInterval(), parameters.getRecoveryStaleness(), parameters.getRecoveryRate());
+        transactionRecovery.start();
+        if (!parameters.getStripedAccounts().isEmpty()) {
+            stripeCompactionTimerId = vertx.setPeriodic(parameters.getStripeCompactionInterval(), id -> maintainAccountStripes());
+            maintainAccountStripes();
+        }
+
+        startPromise.complete();
+    }
+
+    @Override
+    public void stop() {
+        transactionRecovery.stop();
+        if (stripeCompactionTimerId != -1) {
+            vertx.cancelTimer(stripeCompactionTimerId);
+        }
+        for (TransferLane transferLane : transferLanes) {
+            transferLane.stop();
+        }
+        withdrawalDispatcher.stop();
+        withdrawalPoller.stop();
+        // the executors are used by this verticle only
+        transferExecutor.close();
+        withdrawalExecutor.close();
+    }
+
+    // Process withdrawal requests in background threads
+    private void runWithdrawalsInBackground() {
+        vertx.eventBus().consumer(TransactionType.WITHDRAWAL.name(), message -> {
+            String transactionId = getTransactionId(message.body());
+            inFlight.add(transactionId);
+            withdrawalExecutor.execute(() -> {
+                TransactionStatus status = executeTransaction(withdrawCommandService, message.body());
+                if (status == TransactionStatus.AWAITING) {
+                    // sent by the dispatcher along with the other withdrawals debited meanwhile
+                    withdrawalDispatcher.dispatch();
+                }
+                return null;
+            }).onComplete(res -> {
+                inFlight.remove(transactionId);
+                if (res.cause() instanceof OverloadedException e) {
+                    // awaiting withdrawals are not recovered, so they are postponed rather than dropped
+                    vertx.setTimer(TimeUnit.SECONDS.toMillis(e.retryAfterSeconds()),
+                            id -> vertx.eventBus().publish(TransactionType.WITHDRAWAL.name(), message.body()));
+                } else if (res.failed()) {
+                    logger().error("Failed to process withdrawal request: {}", res.cause().getMessage());
+                }
+            });
+        });
+    }
+
+    /*
+     * Process transfer requests in background threads, routed to the lanes by the payer account, so the transfers debiting an account are
+     * executed in order by a single lane rather than waiting for each other's account locks.
+     *
+     * A transfer crossing lanes, i.e. crediting an account debited by another lane, still locks the recipient account along with the payer
+     * one. Accounts are always locked in the order of their numbers, so the lanes can't deadlock, and a credit only waits for a batch of
+     * the other lane to commit. A transfer received by its ID, e.g. from the recovery, is routed by the ID, as its payer is not known
+     * before it's loaded: it's still executed safely under the account locks, only not in order with the lane of its payer.
+     */
+    private void runTransfersInBackground() {
+        vertx.eventBus().consumer(TransactionType.TRANSFER.name(), message -> {
+            String transactionId = getTransactionId(message.body());
+            inFlight.add(transactionId);
+            String routingKey = message.body() instanceof Transaction transaction ? transaction.payerAccountNumber() : transactionId;
+            transferLanes[Math.floorMod(routingKey.hashCode(), transferLanes.length)].add(message.body());
+        });
+    }
+
+    // Stripes the configured accounts, including the ones created since the last time, and folds the stripes back into the accounts
+    private void maintainAccountStripes() {
+        transferExecutor.execute(() -> {
+            transferCommandService.stripeAccounts(parameters.getStripedAccounts(), parameters.getAccountStripes());
+            transferCommandService.compactAccountStripes();
+            return null;
+        }).onFailure(e -> {
+            if (!(e instanceof OverloadedException)) {
+                logger().error("Failed to compact account stripes: {}", e.getMessage());
+            }
+        });
+    }
+
+    // A created or loaded transaction is sent as is, while an existing one is sent by its ID and has to be loaded
+    private static TransactionStatus executeTransaction(ICommandService commandService, Object message) {
+        return message instanceof Transaction transaction
+                ? commandService.executeTransaction(transaction)
+                : commandService.executeTransaction((String) message);
+    }
+
+    private static String getTransactionId(Object message) {
+        return message instanceof Transaction transaction ? transaction.id() : (String) message;
+    }
+}
@@ -0,0 +1,134 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.object.TransactionKey;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.IQueryService;
+import io.vertx.core.Vertx;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Periodically re-injects transactions that have been stuck for longer than a threshold: processing ones are published to the event bus
+ * by ID, and awaiting ones are handed to the poller, as their checks are lost with a restart. The stuck transactions are read in pages of
+ * IDs, one page at a time, and the next page is read only once the injected transactions are due by the rate, so a backlog left by an
+ * outage doesn't flood the event bus and the workers. The transactions that are in flight already are skipped.
+ * <p>
+ * Must be used on the context of a single verticle.
+ */
+class TransactionRecovery implements Loggable {
+
+    private static final int MAX_PAGE_SIZE = 100;
+
+    // the order the stuck transactions are scanned in
+    private static final List<Scan> SCANS = List.of(
+            new Scan(TransactionType.TRANSFER, TransactionStatus.PROCESSING),
+            new Scan(TransactionType.WITHDRAWAL, TransactionStatus.PROCESSING),
+            new Scan(TransactionType.WITHDRAWAL, TransactionStatus.AWAITING));
+
+    private final Vertx vertx;
+
+    private final IQueryService queryService;
+
+    private final WithdrawalPoller withdrawalPoller;
+
+    private final Predicate<String> inFlight;
+
+    private final long interval;
+
+    private final long staleness;
+
+    private final int rate;
+
+    private final int pageSize;
+
+    private long timerId;
+
+    private boolean scanning;
+
+    /**
+     * @param inFlight  tells whether a processing transaction is being executed already
+     * @param staleness time in milliseconds since the last update of a transaction after which it's considered stuck
+     * @param rate      maximum amount of transactions injected per second
+     */
+    TransactionRecovery(Vertx vertx, IQueryService queryService, WithdrawalPoller withdrawalPoller, Predicate<String> inFlight,
+                        long interval, long staleness, int rate) {
+        this.vertx = vertx;
+        this.queryService = queryService;
+        this.withdrawalPoller = withdrawalPoller;
+        this.inFlight = inFlight;
+        this.interval = interval;
+        this.staleness = staleness;
+        this.rate = rate;
+        // a page is injected at once, so it's not bigger than a second worth of the rate
+        this.pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, rate));
+    }
+
+    void start() {
+        timerId = vertx.setPeriodic(interval, id -> {
+            // a scan that takes longer than the interval is not overlapped by the next one
+            if (!scanning) {
+                scanning = true;
+                scan(0, LocalDateTime.now().minus(Duration.ofMillis(staleness)), null);
+            }
+        });
+    }
+
+    void stop() {
+        vertx.cancelTimer(timerId);
+    }
+
+    private void scan(int scanIndex, LocalDateTime updatedBefore, TransactionKey after) {
+        Scan scan = SCANS.get(scanIndex);
+        vertx.executeBlocking(() -> queryService.getStuckTransactions(scan.type(), scan.status(), updatedBefore, after, pageSize), false)
+                .onComplete(res -> {
+                    if (res.failed()) {
+                        logger().error("Failed to recover stuck transactions: {}", res.cause().getMessage());
+                        scanning = false;
+                        return;
+                    }
+                    List<TransactionKey> page = res.result();
+                    int injected = inject(scan, page);
+                    Runnable next;
+                    if (page.size() == pageSize) {
+                        next = () -> scan(scanIndex, updatedBefore, page.get(page.size() - 1));
+                    } else if (scanIndex + 1 < SCANS.size()) {
+                        next = () -> scan(scanIndex + 1, updatedBefore, null);
+                    } else {
+                        next = () -> scanning = false;
+                    }
+                    long delay = injected * 1000L / rate;
+                    if (delay > 0) {
+                        vertx.setTimer(delay, id -> next.run());
+                    } else {
+                        next.run();
+                    }
+                });
+    }
+
+    private int inject(Scan scan, List<TransactionKey> page) {
+        int injected = 0;
+        for (TransactionKey key : page) {
+            if (scan.status() == TransactionStatus.AWAITING) {
+                if (!withdrawalPoller.isScheduled(key.id())) {
+                    withdrawalPoller.schedule(key.id());
+                    injected++;
+                }
+            } else if (!inFlight.test(key.id())) {
+                vertx.eventBus().publish(scan.type().name(), key.id());
+                injected++;
+            }
+        }
+        if (injected > 0) {
+            logger().info("Recovered {} stuck {} {} transactions", injected, scan.status(), scan.type());
+        }
+        return injected;
+    }
+
+    private record Scan(TransactionType type, TransactionStatus status) {
+    }
+}
@@ -0,0 +1,129 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * Executes the transfers routed to it in the order they are received, a single batch at a time, each batch in a single database
+ * transaction. So the lane is the only writer debiting the payer accounts routed to it, and its transfers don't wait for each other's
+ * account locks.
+ * <p>
+ * A batch is executed once it's full, or once its first transfer has waited for the maximum delay, whichever comes first, so a single
+ * transfer is not held for long at a low load, while the batches fill up at a high one. The transfers received while a batch is executed
+ * make up the next ones.
+ * <p>
+ * The transfers are received as the created transactions, which are executed reading only their statuses, or by their IDs, e.g. from the
+ * recovery, which are loaded with every column. A batch is made of consecutive transfers received the same way, so the order is kept.
+ * <p>
+ * Must be used on the context of a single verticle.
+ */
+class TransferLane implements Loggable {
+
+    private final Vertx vertx;
+
+    private final ITransferCommandService commandService;
+
+    private final BlockingExecutor executor;
+
+    private final int batchSize;
+
+    private final long maxDelay;
+
+    private final Consumer<String> onExecuted;
+
+    // the created transactions and the IDs of the existing ones
+    private final Queue<Object> queue = new ArrayDeque<>();
+
+    private long timerId = -1;
+
+    private boolean executing;
+
+    /**
+     * @param maxDelay   maximum time in milliseconds a transfer waits for its batch to fill up
+     * @param onExecuted called with the ID of every transfer of a batch once the batch is executed, successfully or not
+     */
+    TransferLane(Vertx vertx, ITransferCommandService commandService, BlockingExecutor executor, int batchSize, long maxDelay,
+                 Consumer<String> onExecuted) {
+        this.vertx = vertx;
+        this.commandService = commandService;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxDelay = maxDelay;
+        this.onExecuted = onExecuted;
+    }
+
+    /**
+     * @param message the created transaction, or the ID of an existing one
+     */
+    void add(Object message) {
+        queue.add(message);
+        if (executing) {
+            return;
+        }
+        if (queue.size() >= batchSize) {
+            flush();
+        } else if (timerId == -1) {
+            timerId = vertx.setTimer(maxDelay, id -> {
+                timerId = -1;
+                flush();
+            });
+        }
+    }
+
+    void stop() {
+        if (timerId != -1) {
+            vertx.cancelTimer(timerId);
+        }
+    }
+
+    private void flush() {
+        if (timerId != -1) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        if (executing || queue.isEmpty()) {
+            return;
+        }
+        List<Object> batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+        boolean created = queue.peek() instanceof Transaction;
+        while (batch.size() < batchSize && !queue.isEmpty() && queue.peek() instanceof Transaction == created) {
+            batch.add(queue.poll());
+        }
+        executing = true;
+        executor.execute(() -> execute(batch, created)).onComplete(res -> {
+            executing = false;
+            batch.forEach(message -> onExecuted.accept(getTransactionId(message)));
+            if (res.cause() instanceof OverloadedException) {
+                // the transactions stay in PROCESSING status, so they are picked up again by the recovery
+                logger().warn("Batch of {} transfer transactions is left to the recovery: {}", batch.size(),
+                        res.cause().getMessage());
+            } else if (res.failed()) {
+                logger().error("Failed to process batch of transfer requests: {}", res.cause().getMessage());
+            }
+            // the transfers received meanwhile are not held any longer
+            flush();
+        });
+    }
+
+    private Object execute(List<Object> batch, boolean created) {
+        if (batch.size() == 1) {
+            return created ? commandService.executeTransaction((Transaction) batch.get(0))
+                    : commandService.executeTransaction((String) batch.get(0));
+        }
+        return created ? commandService.executeCreatedTransactions(batch.stream().map(Transaction.class::cast).toList())
+                : commandService.executeTransactions(batch.stream().map(String.class::cast).toList());
+    }
+
+    private static String getTransactionId(Object message) {
+        return message instanceof Transaction transaction ? transaction.id() : (String) message;
+    }
+}
@@ -0,0 +1,77 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains the withdrawal outbox to the external service in batches, a single batch at a time. A batch is dispatched as soon as a withdrawal
+ * is debited, while the withdrawals debited meanwhile make up the next one, so the batches grow with the load. The outbox is also swept
+ * periodically for the withdrawals to retry and the ones left over from before a restart. Sent withdrawals are handed to the poller.
+ */
+class WithdrawalDispatcher implements Loggable {
+
+    private final Vertx vertx;
+
+    private final IWithdrawCommandService commandService;
+
+    private final BlockingExecutor executor;
+
+    private final WithdrawalPoller poller;
+
+    private final int batchSize;
+
+    private final long sweepInterval;
+
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    // whether withdrawals have been debited while a batch was being dispatched
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private long sweepTimerId;
+
+    WithdrawalDispatcher(Vertx vertx, IWithdrawCommandService commandService, BlockingExecutor executor, WithdrawalPoller poller,
+                         int batchSize, long sweepInterval) {
+        this.vertx = vertx;
+        this.commandService = commandService;
+        this.executor = executor;
+        this.poller = poller;
+        this.batchSize = batchSize;
+        this.sweepInterval = sweepInterval;
+    }
+
+    void start() {
+        sweepTimerId = vertx.setPeriodic(sweepInterval, id -> dispatch());
+        dispatch();
+    }
+
+    void stop() {
+        vertx.cancelTimer(sweepTimerId);
+    }
+
+    /**
+     * Dispatches the due withdrawals of the outbox, or once the current batch is done if there is one.
+     */
+    void dispatch() {
+        if (!dispatching.compareAndSet(false, true)) {
+            pending.set(true);
+            return;
+        }
+        pending.set(false);
+        executor.execute(() -> commandService.dispatchWithdrawals(batchSize)).onComplete(res -> {
+            dispatching.set(false);
+            if (res.succeeded()) {
+                res.result().forEach(poller::schedule);
+            } else if (!(res.cause() instanceof OverloadedException)) {
+                logger().error("Failed to dispatch withdrawals: {}", res.cause().getMessage());
+            }
+            // a full batch is likely to be followed by more
+            if (pending.get() || res.succeeded() && res.result().size() >= batchSize) {
+                dispatch();
+            }
+        });
+    }
+}
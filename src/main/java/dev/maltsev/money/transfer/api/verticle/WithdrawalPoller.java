@@ -0,0 +1,184 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.logging.Loggable;
+import dev.maltsev.money.transfer.api.service.IQueryService;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.vertx.core.Vertx;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks awaiting withdrawals with the external service on a hashed timer wheel, so any amount of them costs a single timer thread. While
+ * a withdrawal is in progress, the interval between its checks is doubled up to a maximum and randomized, so withdrawals requested together
+ * don't keep being checked together. Due checks are taken in batches: each batch is a single call to the external service, and the
+ * transactions of the batch whose withdrawals are final are settled in a single database transaction.
+ * <p>
+ * The time of the next check of every withdrawal is saved in batches, and awaiting withdrawals are scheduled from the database on start, so
+ * the checks go on after a restart, although with the backoff starting over.
+ */
+class WithdrawalPoller implements Loggable {
+
+    private static final long TICK_MILLIS = 100;
+
+    private static final long SAVE_INTERVAL = 1000;
+
+    private final Vertx vertx;
+
+    private final IWithdrawCommandService commandService;
+
+    private final IQueryService queryService;
+
+    private final BlockingExecutor executor;
+
+    private final long initialInterval;
+
+    private final long maxInterval;
+
+    private final int batchSize;
+
+    private final HashedWheelTimer wheel = new HashedWheelTimer(new DefaultThreadFactory("withdrawal-poller", true), TICK_MILLIS,
+            TimeUnit.MILLISECONDS);
+
+    // transactionId -> number of the next check, for the transactions having a check scheduled
+    private final Map<String, Integer> scheduled = new ConcurrentHashMap<>();
+
+    // transactionId -> time of the next check that is not saved yet
+    private final Map<String, LocalDateTime> unsaved = new ConcurrentHashMap<>();
+
+    // checks whose time has come, taken by a single batch at a time
+    private final Queue<Check> due = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean checking = new AtomicBoolean();
+
+    private long saveTimerId;
+
+    WithdrawalPoller(Vertx vertx, IWithdrawCommandService commandService, IQueryService queryService, BlockingExecutor executor,
+                     long initialInterval, long maxInterval, int batchSize) {
+        this.vertx = vertx;
+        this.commandService = commandService;
+        this.queryService = queryService;
+        this.executor = executor;
+        this.initialInterval = initialInterval;
+        this.maxInterval = maxInterval;
+        this.batchSize = batchSize;
+    }
+
+    void start() {
+        saveTimerId = vertx.setPeriodic(SAVE_INTERVAL, id -> saveNextChecks());
+        executor.execute(queryService::getAwaitingTransactionChecks).onComplete(res -> {
+            if (res.succeeded()) {
+                LocalDateTime now = LocalDateTime.now();
+                res.result().forEach((transactionId, nextCheckAt) -> schedule(transactionId, 0,
+                        nextCheckAt == null ? 0 : Math.max(0, Duration.between(now, nextCheckAt).toMillis())));
+                logger().info("Scheduled checks of {} awaiting withdrawals", res.result().size());
+            } else {
+                logger().error("Failed to schedule checks of awaiting withdrawals: {}", res.cause().getMessage());
+            }
+        });
+    }
+
+    void stop() {
+        vertx.cancelTimer(saveTimerId);
+        wheel.stop();
+    }
+
+    /**
+     * Schedules checks of a withdrawal that has become awaiting, unless they are scheduled already.
+     */
+    void schedule(String transactionId) {
+        schedule(transactionId, 0, backoff(0, initialInterval, maxInterval));
+    }
+
+    boolean isScheduled(String transactionId) {
+        return scheduled.containsKey(transactionId);
+    }
+
+    private void schedule(String transactionId, int check, long delay) {
+        if (scheduled.putIfAbsent(transactionId, check) == null) {
+            newTimeout(transactionId, check, delay);
+        }
+    }
+
+    private void newTimeout(String transactionId, int check, long delay) {
+        wheel.newTimeout(timeout -> {
+            due.add(new Check(transactionId, check));
+            checkDue();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkDue() {
+        if (due.isEmpty() || !checking.compareAndSet(false, true)) {
+            return;
+        }
+        Map<String, Integer> batch = new HashMap<>();
+        Check next;
+        while (batch.size() < batchSize && (next = due.poll()) != null) {
+            batch.put(next.transactionId(), next.number());
+        }
+        executor.execute(() -> commandService.checkTransactions(batch.keySet())).onComplete(res -> {
+            if (res.failed() && !(res.cause() instanceof OverloadedException)) {
+                logger().error("Failed to check withdrawals of {} transactions: {}", batch.size(), res.cause().getMessage());
+            }
+            batch.forEach((transactionId, check) -> {
+                TransactionStatus status = res.succeeded() ? res.result().get(transactionId) : TransactionStatus.AWAITING;
+                if (status != TransactionStatus.AWAITING) {
+                    scheduled.remove(transactionId);
+                    unsaved.remove(transactionId);
+                } else {
+                    reschedule(transactionId, check + 1);
+                }
+            });
+            checking.set(false);
+            // the checks that have become due meanwhile
+            checkDue();
+        });
+    }
+
+    private void reschedule(String transactionId, int check) {
+        long delay = backoff(check, initialInterval, maxInterval);
+        scheduled.put(transactionId, check);
+        unsaved.put(transactionId, LocalDateTime.now().plus(Duration.ofMillis(delay)));
+        newTimeout(transactionId, check, delay);
+    }
+
+    private void saveNextChecks() {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        Map<String, LocalDateTime> nextChecks = new HashMap<>(unsaved);
+        nextChecks.forEach(unsaved::remove);
+        executor.execute(() -> {
+            commandService.saveNextChecks(nextChecks);
+            return null;
+        }).onFailure(e -> {
+            logger().error("Failed to save next checks of {} awaiting withdrawals: {}", nextChecks.size(), e.getMessage());
+            // saved with the next batch unless a newer time is there already
+            nextChecks.forEach(unsaved::putIfAbsent);
+        });
+    }
+
+    /**
+     * @param check the number of the check, starting with 0
+     * @return a random time in milliseconds between the half and the whole of the interval of the check
+     */
+    static long backoff(int check, long initialInterval, long maxInterval) {
+        long interval = Math.min(maxInterval, initialInterval << Math.min(check, 30));
+        return interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+    }
+
+    private record Check(String transactionId, int number) {
+    }
+}
@@ -0,0 +1,2 @@
+-- time of the next check of an awaiting withdrawal with the external service, null for a check as soon as possible
+ALTER TABLE transactions ADD COLUMN next_check_at TIMESTAMP;
@@ -0,0 +1,9 @@
+CREATE TABLE withdrawal_outbox
+(
+    id UUID PRIMARY KEY,
+    attempts INT DEFAULT 0 NOT NULL,
+    next_attempt_at TIMESTAMP NOT NULL,
+    FOREIGN KEY (id) REFERENCES transactions (id)
+);
+
+CREATE INDEX idx_withdrawal_outbox_next_attempt_at ON withdrawal_outbox(next_attempt_at);
@@ -0,0 +1,2 @@
+-- stuck transactions are read in pages ordered by the time of their last update and then ID
+CREATE INDEX idx_transactions_status_updated ON transactions(status, updated, id);
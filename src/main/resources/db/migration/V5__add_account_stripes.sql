@@ -0,0 +1,11 @@
+-- the balance of a striped account is its own balance plus the balances of its stripes, which take the credits
+ALTER TABLE accounts ADD COLUMN stripes INT DEFAULT 0 NOT NULL;
+
+CREATE TABLE account_stripes
+(
+    account_number VARCHAR(34) NOT NULL,
+    stripe         INT         NOT NULL,
+    balance        DECIMAL     DEFAULT 0 NOT NULL,
+    PRIMARY KEY (account_number, stripe),
+    FOREIGN KEY (account_number) REFERENCES accounts (number)
+);
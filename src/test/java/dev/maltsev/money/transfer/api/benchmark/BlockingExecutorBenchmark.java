@@ -0,0 +1,82 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.verticle.BlockingExecutor;
+import dev.maltsev.money.transfer.api.verticle.ExecutionMode;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the worker pool with virtual threads for transactions that spend most of their time waiting on locks held by each other.
+ * Every batch runs transactions over a set of accounts, each one holding the lock of its account for a while. The in-memory database
+ * locks whole tables, which would serialize any DB-backed variant regardless of the threads, so the account locks are simulated here.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=BlockingExecutor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BlockingExecutorBenchmark {
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final int ACCOUNTS = 50;
+
+    private static final long LOCK_HOLD_MILLIS = 1;
+
+    @Param({"WORKER", "VIRTUAL"})
+    public ExecutionMode executionMode;
+
+    private final List<ReentrantLock> accountLocks = new ArrayList<>();
+
+    private Vertx vertx;
+
+    private BlockingExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Parameters parameters = new Parameters();
+        vertx = Vertx.vertx();
+        executor = BlockingExecutor.create(vertx, executionMode, "transfer-worker-pool", parameters.getTransferWorkerPoolSize(),
+                parameters.getTransferConcurrency());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountLocks.add(new ReentrantLock());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        vertx.close();
+    }
+
+    /**
+     * @return the amount of executed transactions, the score is batches per second
+     */
+    @Benchmark
+    public int transactions() throws Exception {
+        List<Future<Integer>> futures = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ReentrantLock accountLock = accountLocks.get(i % ACCOUNTS);
+            futures.add(executor.execute(() -> {
+                accountLock.lock();
+                try {
+                    // the work done while holding the lock, e.g. a round trip to the database
+                    Thread.sleep(LOCK_HOLD_MILLIS);
+                    return 1;
+                } finally {
+                    accountLock.unlock();
+                }
+            }));
+        }
+        return Future.all(futures).toCompletionStage().toCompletableFuture().get().size();
+    }
+}
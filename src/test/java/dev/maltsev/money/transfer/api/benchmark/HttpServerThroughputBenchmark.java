@@ -0,0 +1,112 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.Application;
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Compares HTTP throughput of a single {@code HttpServerVerticle} instance against one instance per available processor.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=HttpServerThroughput}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(64)
+public class HttpServerThroughputBenchmark {
+
+    private static final int PORT = 8095;
+
+    @Param({"1", "0"})
+    public int httpServerInstances;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private Vertx vertx;
+
+    private Parameters parameters;
+
+    private URI statusUri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        parameters = new Parameters();
+        parameters.setPort(PORT);
+        parameters.setHttpServerInstances(httpServerInstances > 0 ? httpServerInstances : Runtime.getRuntime().availableProcessors());
+        // all the requests come from a single customer
+        parameters.setTransferRateLimit(1_000_000);
+        parameters.setTransferBurst(1_000_000);
+        vertx = Application.run(parameters);
+
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            insertCustomerWithAccounts(new Customer("payer").addAccount(new Account("payer-account", new BigDecimal("1000000000000"))), connection);
+            insertCustomerWithAccounts(new Customer("recipient").addAccount(new Account("recipient-account", BigDecimal.ONE)), connection);
+        }
+
+        String transactionId = awaitServerAndSendTransfer();
+        statusUri = URI.create("http://localhost:%d/customers/payer/transactions/%s/status".formatted(PORT, transactionId));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Application.destroyVertx(vertx, parameters);
+    }
+
+    @Benchmark
+    public int transfer() throws IOException, InterruptedException {
+        return client.send(transferRequest(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int status() throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(statusUri).GET().build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private String awaitServerAndSendTransfer() throws InterruptedException {
+        while (true) {
+            try {
+                HttpResponse<String> response = client.send(transferRequest(), HttpResponse.BodyHandlers.ofString());
+                return new JsonObject(response.body()).getString("transactionId");
+            } catch (IOException e) {
+                // the server is not listening yet
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static HttpRequest transferRequest() {
+        String body = new JsonObject()
+                .put("requestId", UUID.randomUUID().toString())
+                .put("payerAccountNumber", "payer-account")
+                .put("recipientAccountNumber", "recipient-account")
+                .put("recipient", "recipient")
+                .put("amount", 1)
+                .encode();
+        return HttpRequest.newBuilder(URI.create("http://localhost:%d/customers/payer/transfer".formatted(PORT)))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+}
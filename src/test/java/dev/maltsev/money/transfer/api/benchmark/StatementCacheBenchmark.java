@@ -0,0 +1,65 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.lockTransactionById;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.tryInsertTransaction;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.updateTransaction;
+
+/**
+ * Measures the time to lock a transaction and complete it within a database transaction, as every execution of a transaction does, with
+ * the statements prepared for every query when the cache size is 0 and kept prepared per thread otherwise. The database transaction is
+ * rolled back, so the same transaction is completed by every invocation.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=StatementCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StatementCacheBenchmark {
+
+    @Param({"0", "64"})
+    public int statementCacheSize;
+
+    private Sql2o sql2o;
+
+    private String transactionId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sql2o = DaoUtils.setupDatabase(statementCacheSize);
+        Transaction transaction = new TransferRequest(UUID.randomUUID(), "payer-account", "recipient-account", "recipient",
+                Money.fromInt(1)).toTransaction("payer");
+        try (Connection connection = sql2o.open()) {
+            insertCustomerWithAccounts(new Customer("payer").addAccount(new Account("payer-account", BigDecimal.TEN)), connection);
+            insertCustomerWithAccounts(new Customer("recipient").addAccount(new Account("recipient-account", BigDecimal.ONE)), connection);
+            transactionId = tryInsertTransaction(transaction, connection);
+        }
+    }
+
+    @Benchmark
+    public Transaction lockAndUpdate() {
+        try (Connection connection = sql2o.beginTransaction()) {
+            Transaction transaction = lockTransactionById(transactionId, connection).complete();
+            updateTransaction(transaction, connection);
+            connection.rollback();
+            return transaction;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects to the in-memory database of the application and counts the statements prepared by the connections, i.e. the round trips a
+ * caller makes, as every query of the DAOs prepares its own statement.
+ */
+final class StatementCountingDataSource {
+
+    private static final Set<String> STATEMENT_METHODS = Set.of("prepareStatement", "prepareCall", "createStatement");
+
+    private final AtomicLong statements = new AtomicLong();
+
+    private final DataSource dataSource;
+
+    StatementCountingDataSource() {
+        JDBCDataSource target = new JDBCDataSource();
+        target.setUrl("jdbc:hsqldb:mem:mymemdb");
+        target.setUser("SA");
+        target.setPassword("");
+        dataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(target, method, args);
+                    return result instanceof Connection connection ? countStatements(connection) : result;
+                });
+    }
+
+    DataSource dataSource() {
+        return dataSource;
+    }
+
+    long statements() {
+        return statements.get();
+    }
+
+    private Connection countStatements(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (STATEMENT_METHODS.contains(method.getName())) {
+                        statements.incrementAndGet();
+                    }
+                    return invoke(connection, method, args);
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
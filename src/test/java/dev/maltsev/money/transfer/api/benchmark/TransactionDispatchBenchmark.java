@@ -0,0 +1,84 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
+import dev.maltsev.money.transfer.api.verticle.LocalTransactionCodec;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Measures the latency from publishing a created transfer to the event bus until it's executed, sending either the ID of the transaction,
+ * which the consumer has to load with every column, or the transaction itself through {@link LocalTransactionCodec}, which leaves only its
+ * status to be read. A transfer lane executes a batch of a single received transfer the same way, while a larger batch of them has only the
+ * statuses locked at once.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=TransactionDispatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionDispatchBenchmark {
+
+    private static final String ADDRESS = "DISPATCH";
+
+    @Param({"ID", "TRANSACTION"})
+    public String message;
+
+    private Vertx vertx;
+
+    private ICommandService commandService;
+
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vertx = Vertx.vertx();
+        vertx.eventBus().registerDefaultCodec(Transaction.class, new LocalTransactionCodec());
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            insertCustomerWithAccounts(new Customer("payer").addAccount(new Account("payer-account", new BigDecimal("1000000000000"))),
+                    connection);
+            insertCustomerWithAccounts(new Customer("recipient").addAccount(new Account("recipient-account", Money.fromInt(1))), connection);
+        }
+        commandService = new TransferCommandService(sql2o);
+        vertx.eventBus().consumer(ADDRESS, received -> vertx.executeBlocking(() -> received.body() instanceof Transaction created
+                        ? commandService.executeTransaction(created)
+                        : commandService.executeTransaction((String) received.body()), false)
+                .onComplete(res -> received.reply(res.succeeded() ? res.result().name() : res.cause().getMessage())));
+    }
+
+    @Setup(Level.Invocation)
+    public void createTransaction() {
+        transaction = new TransferRequest(UUID.randomUUID(), "payer-account", "recipient-account", "recipient", Money.fromInt(1))
+                .toTransaction("payer");
+        commandService.createTransaction(transaction);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Benchmark
+    public Object dispatch() throws Exception {
+        Object body = message.equals("TRANSACTION") ? transaction : transaction.id();
+        return vertx.eventBus().request(ADDRESS, body).toCompletionStage().toCompletableFuture().get().body();
+    }
+}
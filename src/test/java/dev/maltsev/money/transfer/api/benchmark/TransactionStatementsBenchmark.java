@@ -0,0 +1,113 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
+import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
+import dev.maltsev.money.transfer.api.service.impl.WithdrawCommandService;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Measures the time to execute a single created transaction of the given type, and counts the statements the execution takes, which are
+ * reported per transaction along with the time. The creation of the transactions isn't measured or counted, neither is sending the
+ * withdrawals, which are only debited and put to the outbox by the execution.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=TransactionStatements}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionStatementsBenchmark {
+
+    @Param({"TRANSFER", "WITHDRAWAL"})
+    public TransactionType type;
+
+    private StatementCountingDataSource dataSource;
+
+    private ICommandService commandService;
+
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            insertCustomerWithAccounts(new Customer("payer").addAccount(new Account("payer-account", new BigDecimal("1000000000000"))),
+                    connection);
+            insertCustomerWithAccounts(new Customer("recipient").addAccount(new Account("recipient-account", BigDecimal.ONE)), connection);
+        }
+        dataSource = new StatementCountingDataSource();
+        Sql2o countingSql2o = new Sql2o(dataSource.dataSource());
+        commandService = type == TransactionType.TRANSFER
+                ? new TransferCommandService(countingSql2o)
+                : new WithdrawCommandService(countingSql2o);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTransaction() {
+        transaction = type == TransactionType.TRANSFER
+                ? new TransferRequest(UUID.randomUUID(), "payer-account", "recipient-account", "recipient", Money.fromInt(1))
+                .toTransaction("payer")
+                : new WithdrawRequest(UUID.randomUUID(), "payer-account", "address", Money.fromInt(1)).toTransaction("payer");
+        commandService.createTransaction(transaction);
+    }
+
+    @Benchmark
+    public TransactionStatus execute(Statements statements) {
+        return commandService.executeTransaction(transaction.id());
+    }
+
+    /**
+     * Counts the statements of the executions measured by an iteration, excluding the creation of the transactions.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Statements {
+
+        private long statementsBefore;
+
+        private long counted;
+
+        private long transactions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            counted = 0;
+            transactions = 0;
+        }
+
+        // runs after the transaction of the invocation is created by the benchmark state it depends on
+        @Setup(Level.Invocation)
+        public void start(TransactionStatementsBenchmark benchmark) {
+            statementsBefore = benchmark.dataSource.statements();
+        }
+
+        @TearDown(Level.Invocation)
+        public void count(TransactionStatementsBenchmark benchmark) {
+            counted += benchmark.dataSource.statements() - statementsBefore;
+            transactions++;
+        }
+
+        public double statementsPerTransaction() {
+            return transactions > 0 ? (double) counted / transactions : 0;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Measures the time to execute a backlog of transfers between a few accounts in batches of the given size, each one in a single database
+ * transaction. A batch of 1 executes the transfers one by one, the way they are executed without batching.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=TransferBatch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBatchBenchmark {
+
+    private static final int BACKLOG_SIZE = 200;
+
+    private static final int ACCOUNTS = 10;
+
+    @Param({"1", "10", "50"})
+    public int batchSize;
+
+    private ITransferCommandService commandService;
+
+    private final List<String> transactionIds = new ArrayList<>(BACKLOG_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                insertCustomerWithAccounts(new Customer("customer-" + i)
+                        .addAccount(new Account("account-" + i, new BigDecimal("1000000000000"))), connection);
+            }
+        }
+        commandService = new TransferCommandService(sql2o);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTransactions() {
+        transactionIds.clear();
+        for (int i = 0; i < BACKLOG_SIZE; i++) {
+            int payer = i % ACCOUNTS;
+            int recipient = (i + 1) % ACCOUNTS;
+            Transaction transaction = new TransferRequest(UUID.randomUUID(), "account-" + payer, "account-" + recipient,
+                    "customer-" + recipient, Money.fromInt(1)).toTransaction("customer-" + payer);
+            transactionIds.add(commandService.createTransaction(transaction));
+        }
+    }
+
+    /**
+     * @return the amount of executed transfers, the score is the time per backlog
+     */
+    @Benchmark
+    public int transfers() {
+        int executed = 0;
+        for (int from = 0; from < BACKLOG_SIZE; from += batchSize) {
+            List<String> batch = transactionIds.subList(from, Math.min(from + batchSize, BACKLOG_SIZE));
+            if (batchSize == 1) {
+                commandService.executeTransaction(batch.get(0));
+            } else {
+                commandService.executeTransactions(batch);
+            }
+            executed += batch.size();
+        }
+        return executed;
+    }
+}
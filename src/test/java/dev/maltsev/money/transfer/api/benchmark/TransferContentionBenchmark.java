@@ -0,0 +1,112 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.service.ICommandService;
+import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Measures the time to execute a backlog of transfers, most of them debiting a single hot account, on the default amount of transfer
+ * workers. SHARED lets any worker execute any transfer, so the workers wait for each other's lock of the hot account, while LANES routes
+ * the transfers by payer account to single-threaded lanes, so the transfers debiting an account are executed in order by a single one.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=TransferContention}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferContentionBenchmark {
+
+    private static final int BACKLOG_SIZE = 200;
+
+    private static final int ACCOUNTS = 10;
+
+    @Param({"SHARED", "LANES"})
+    public String routing;
+
+    private ExecutorService[] executors;
+
+    private ICommandService commandService;
+
+    private final List<Transaction> transactions = new ArrayList<>(BACKLOG_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int workers = new Parameters().getTransferWorkerPoolSize();
+        if (routing.equals("LANES")) {
+            executors = new ExecutorService[workers];
+            for (int i = 0; i < workers; i++) {
+                executors[i] = Executors.newSingleThreadExecutor();
+            }
+        } else {
+            executors = new ExecutorService[]{Executors.newFixedThreadPool(workers)};
+        }
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                insertCustomerWithAccounts(new Customer("customer-" + i)
+                        .addAccount(new Account("account-" + i, new BigDecimal("1000000000000"))), connection);
+            }
+        }
+        commandService = new TransferCommandService(sql2o);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTransactions() {
+        transactions.clear();
+        for (int i = 0; i < BACKLOG_SIZE; i++) {
+            // 4 out of 5 transfers debit the hot account 0
+            int payer = i % 5 == 0 ? 1 + i % (ACCOUNTS - 1) : 0;
+            int recipient = (payer + 1) % ACCOUNTS;
+            Transaction transaction = new TransferRequest(UUID.randomUUID(), "account-" + payer, "account-" + recipient,
+                    "customer-" + recipient, Money.fromInt(1)).toTransaction("customer-" + payer);
+            commandService.createTransaction(transaction);
+            transactions.add(transaction);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the amount of executed transfers, the score is the time per backlog
+     */
+    @Benchmark
+    public int transfers() throws Exception {
+        List<Future<?>> executed = new ArrayList<>(BACKLOG_SIZE);
+        for (Transaction transaction : transactions) {
+            ExecutorService executor = executors[Math.floorMod(transaction.payerAccountNumber().hashCode(), executors.length)];
+            executed.add(executor.submit(() -> commandService.executeTransaction(transaction.id())));
+        }
+        for (Future<?> future : executed) {
+            future.get();
+        }
+        return executed.size();
+    }
+}
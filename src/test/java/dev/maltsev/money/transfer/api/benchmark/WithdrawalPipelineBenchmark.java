@@ -0,0 +1,103 @@
+package dev.maltsev.money.transfer.api.benchmark;
+
+import dev.maltsev.money.transfer.api.Parameters;
+import dev.maltsev.money.transfer.api.dao.DaoUtils;
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.service.ITransactionListener;
+import dev.maltsev.money.transfer.api.service.IWithdrawCommandService;
+import dev.maltsev.money.transfer.api.service.impl.IdempotencyCache;
+import dev.maltsev.money.transfer.api.service.impl.WithdrawCommandService;
+import org.openjdk.jmh.annotations.*;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static dev.maltsev.money.transfer.api.dao.CustomerDao.insertCustomerWithAccounts;
+
+/**
+ * Measures the time to debit a batch of withdrawals on a pool of the default amount of withdrawal workers and then to send them from the
+ * outbox to an external service with a fixed latency. The debits don't depend on the latency, while the outbox is drained in batches of
+ * the given size, each one waiting for the service once.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark=WithdrawalPipeline}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WithdrawalPipelineBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final long LATENCY_MILLIS = 20;
+
+    @Param({"1", "100"})
+    public int dispatchBatchSize;
+
+    private ExecutorService workers;
+
+    private IWithdrawCommandService commandService;
+
+    private final List<Transaction> transactions = new ArrayList<>(BATCH_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(new Parameters().getWithdrawalWorkerPoolSize());
+        Sql2o sql2o = DaoUtils.setupDatabase();
+        try (Connection connection = sql2o.open()) {
+            insertCustomerWithAccounts(new Customer("payer").addAccount(new Account("payer-account", new BigDecimal("1000000000000"))),
+                    connection);
+        }
+        commandService = new WithdrawCommandService(sql2o, ITransactionListener.NONE, IdempotencyCache.DISABLED, LATENCY_MILLIS);
+    }
+
+    @Setup(Level.Invocation)
+    public void createTransactions() {
+        transactions.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Transaction transaction = new WithdrawRequest(UUID.randomUUID(), "payer-account", "address", Money.fromInt(1))
+                    .toTransaction("payer");
+            commandService.createTransaction(transaction);
+            transactions.add(transaction);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return the amount of sent withdrawals, the score is the time per batch
+     */
+    @Benchmark
+    public int withdrawals() throws Exception {
+        List<Future<TransactionStatus>> debited = new ArrayList<>(BATCH_SIZE);
+        for (Transaction transaction : transactions) {
+            debited.add(workers.submit(() -> commandService.executeTransaction(transaction)));
+        }
+        for (Future<TransactionStatus> status : debited) {
+            status.get();
+        }
+        int sent = 0;
+        while (sent < BATCH_SIZE) {
+            sent += commandService.dispatchWithdrawals(dispatchBatchSize).size();
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,90 @@
+package dev.maltsev.money.transfer.api.dao;
+
+import org.junit.jupiter.api.Test;
+import org.sql2o.GenericDatasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementCachingConnectionSourceTest {
+
+    private static final String SELECT_CUSTOMER_SQL = "SELECT LOGIN FROM CUSTOMERS WHERE LOGIN = ?";
+
+    static {
+        DaoUtils.setupDatabase(0);
+    }
+
+    private final StatementCachingConnectionSource connectionSource =
+            new StatementCachingConnectionSource(new GenericDatasource("jdbc:hsqldb:mem:mymemdb", "SA", ""), 2);
+
+    @Test
+    public void testPrepareStatement_ReusedAfterClose() throws SQLException {
+        PreparedStatement first;
+        try (Connection connection = connectionSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER_SQL)) {
+            first = statement.unwrap(PreparedStatement.class);
+        }
+
+        try (Connection connection = connectionSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER_SQL)) {
+            assertSame(first, statement.unwrap(PreparedStatement.class));
+            assertFalse(first.isClosed());
+        }
+    }
+
+    @Test
+    public void testPrepareStatement_InUse_NewStatement() throws SQLException {
+        try (Connection connection = connectionSource.getConnection();
+             PreparedStatement first = connection.prepareStatement(SELECT_CUSTOMER_SQL);
+             PreparedStatement second = connection.prepareStatement(SELECT_CUSTOMER_SQL)) {
+            assertNotSame(first.unwrap(PreparedStatement.class), second.unwrap(PreparedStatement.class));
+        }
+    }
+
+    @Test
+    public void testPrepareStatement_LeastRecentlyUsedClosed() throws SQLException {
+        PreparedStatement evicted;
+        try (Connection connection = connectionSource.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER_SQL)) {
+                evicted = statement.unwrap(PreparedStatement.class);
+            }
+            connection.prepareStatement("SELECT 1 FROM CUSTOMERS").close();
+            connection.prepareStatement("SELECT 2 FROM CUSTOMERS").close();
+        }
+
+        assertTrue(evicted.isClosed());
+    }
+
+    @Test
+    public void testGetConnection_InUse_NewConnection() throws SQLException {
+        try (Connection connection = connectionSource.getConnection(); Connection nested = connectionSource.getConnection()) {
+            assertNotSame(connection.unwrap(Connection.class), nested.unwrap(Connection.class));
+        }
+    }
+
+    @Test
+    public void testClose_OpenTransaction_RolledBack() throws SQLException {
+        String login = UUID.randomUUID().toString().substring(0, 32);
+        try (Connection connection = connectionSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO CUSTOMERS (LOGIN) VALUES (?)")) {
+                statement.setString(1, login);
+                statement.executeUpdate();
+            }
+        }
+
+        try (Connection connection = connectionSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CUSTOMER_SQL)) {
+            assertTrue(connection.getAutoCommit());
+            statement.setString(1, login);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertFalse(resultSet.next());
+            }
+        }
+    }
+}
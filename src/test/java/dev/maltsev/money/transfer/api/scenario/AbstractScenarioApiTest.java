@@ -49,6 +49,14 @@ public abstract class AbstractScenarioApiTest extends AbstractDatabaseTest {
         }
     }
 
+    public static String getNdjsonRequest(String folder) {
+        try {
+            return readString(Paths.get("src/test/resources/data/" + folder + "/request.ndjson"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static void assertPayerAccountBalance(String transactionId, Money balance) {
         try (Connection connection = sql2o.open()) {
             Transaction transaction = TransactionDao.findTransactionById(transactionId, connection);
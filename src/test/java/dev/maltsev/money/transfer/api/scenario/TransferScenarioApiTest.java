@@ -5,6 +5,7 @@ import dev.maltsev.money.transfer.api.domain.object.Money;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
+import io.vertx.core.json.JsonObject;
 import lombok.SneakyThrows;
 import org.hamcrest.Matchers;
 import org.hamcrest.text.MatchesPattern;
@@ -12,21 +13,31 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static io.restassured.RestAssured.given;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TransferScenarioApiTest extends AbstractScenarioApiTest {
 
+    private static final int ADMIN_PORT = 8081;
+
     @BeforeAll
     public static void startServer() {
-        Application.main(new String[]{"--recoveryInterval", "100"});
+        // the database is cleaned up after every test behind the back of the idempotency cache, so it's disabled
+        Application.main(new String[]{"--recoveryInterval", "100", "--idempotencyCacheSize", "0", "--withdrawalPollMaxInterval", "2000"});
         RestAssured.baseURI = "http://localhost";
         RestAssured.port = 8080;
     }
@@ -157,6 +168,56 @@ public class TransferScenarioApiTest extends AbstractScenarioApiTest {
         assertRecipientAccountBalance(transactionId, Money.fromInt(100));
     }
 
+    @Test
+    public void testTransfer_SyncMode_Ok() {
+        arrangeDatabase("transfer/single-customer");
+
+        String transactionId = given()
+                .contentType(ContentType.JSON)
+                .body(getJsonRequest("transfer/single-customer")).
+                when()
+                .post("customers/customer/transfer?mode=sync").
+                then()
+                .statusCode(200)
+                .body("status", Matchers.equalTo("COMPLETED"))
+                .extract()
+                .path("transactionId");
+
+        assertPayerAccountBalance(transactionId, Money.fromInt(100));
+        assertRecipientAccountBalance(transactionId, Money.fromInt(200));
+    }
+
+    @Test
+    public void testTransfer_SyncModeInsufficientFunds_Fail() {
+        arrangeDatabase("transfer/insufficient-funds");
+
+        String transactionId = given()
+                .contentType(ContentType.JSON)
+                .body(getJsonRequest("transfer/insufficient-funds")).
+                when()
+                .post("customers/customer1/transfer?mode=sync").
+                then()
+                .statusCode(200)
+                .body("status", Matchers.equalTo("FAILED"))
+                .extract()
+                .path("transactionId");
+
+        assertPayerAccountBalance(transactionId, Money.fromInt(50));
+        assertRecipientAccountBalance(transactionId, Money.fromInt(100));
+    }
+
+    @Test
+    public void testTransfer_UnknownMode_Fail() {
+        given()
+                .contentType(ContentType.JSON)
+                .body(getJsonRequest("transfer/single-customer")).
+                when()
+                .post("customers/customer/transfer?mode=later").
+                then()
+                .statusCode(400)
+                .body("message", Matchers.equalTo("mode must be either sync or async"));
+    }
+
     @Test
     public void testTransfer_UnknownTransactionId_Fail() {
         arrangeDatabase("transfer/single-customer");
@@ -252,4 +313,157 @@ public class TransferScenarioApiTest extends AbstractScenarioApiTest {
             executorService.shutdown();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchTransfer_Ok() {
+        arrangeDatabase("transfer/batch");
+
+        List<Map<String, String>> results =
+                given()
+                        .contentType(ContentType.JSON)
+                        .body(getJsonRequest("transfer/batch")).
+                        when()
+                        .post("customers/customer1/transfers:batch").
+                        then()
+                        .statusCode(200)
+                        .extract()
+                        .path("results");
+
+        assertEquals(4, results.size());
+        assertNotNull(results.get(0).get("transactionId"));
+        assertTrue(results.get(1).get("message").contains("amount can't be zero or negative"));
+        assertNotNull(results.get(2).get("transactionId"));
+        assertEquals(results.get(0).get("transactionId"), results.get(3).get("transactionId"));
+
+        assertEquals(TransactionStatus.COMPLETED, assertGetTransactionStatus("customer1", results.get(0).get("transactionId")));
+        assertEquals(TransactionStatus.COMPLETED, assertGetTransactionStatus("customer1", results.get(2).get("transactionId")));
+        assertPayerAccountBalance(results.get(0).get("transactionId"), Money.fromInt(100));
+        assertRecipientAccountBalance(results.get(0).get("transactionId"), Money.fromInt(200));
+    }
+
+    @Test
+    public void testBatchTransfer_NotArray_Fail() {
+        given()
+                .contentType(ContentType.JSON)
+                .body(getJsonRequest("transfer/two-customers")).
+                when()
+                .post("customers/customer1/transfers:batch").
+                then()
+                .statusCode(400)
+                .body("message", Matchers.equalTo("Request body is not valid JSON array"));
+    }
+
+    @Test
+    public void testTransfer_RateLimited_Fail() {
+        given()
+                .port(ADMIN_PORT)
+                .contentType(ContentType.JSON)
+                .body("{\"rate\": 0.1, \"burst\": 1}").
+                when()
+                .put("admin/rate-limits/transfer").
+                then()
+                .statusCode(200)
+                .body("TRANSFER.burst", Matchers.equalTo(1));
+        try {
+            // the token is taken even though the request is invalid
+            given().contentType(ContentType.JSON).when().post("customers/rate-limited/transfer").then().statusCode(400);
+
+            given()
+                    .contentType(ContentType.JSON).
+                    when()
+                    .post("customers/rate-limited/transfer").
+                    then()
+                    .statusCode(429)
+                    .header("Retry-After", "10")
+                    .body("message", Matchers.containsString("customer 'rate-limited'"));
+        } finally {
+            given().port(ADMIN_PORT).contentType(ContentType.JSON).body("{\"rate\": 100, \"burst\": 200}").when()
+                    .put("admin/rate-limits/transfer").then().statusCode(200);
+        }
+    }
+
+    @Test
+    public void testSetRateLimit_InvalidType_Fail() {
+        given()
+                .port(ADMIN_PORT)
+                .contentType(ContentType.JSON)
+                .body("{\"rate\": 1, \"burst\": 1}").
+                when()
+                .put("admin/rate-limits/deposit").
+                then()
+                .statusCode(400)
+                .body("message", Matchers.equalTo("Type must be either transfer or withdrawal"));
+    }
+
+    @Test
+    public void testSetRateLimit_ApiPort_NotFound() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("{\"rate\": 0.1, \"burst\": 1}").
+                when()
+                .put("admin/rate-limits/transfer").
+                then()
+                .statusCode(404);
+    }
+
+    @Test
+    public void testImportTransfers_Ok() {
+        arrangeDatabase("transfer/import");
+
+        String response =
+                given()
+                        .contentType("application/x-ndjson")
+                        .body(getNdjsonRequest("transfer/import").getBytes()).
+                        when()
+                        .post("customers/customer1/transfers:import").
+                        then()
+                        .statusCode(200)
+                        .contentType("application/x-ndjson")
+                        .extract()
+                        .asString();
+
+        List<JsonObject> results = response.lines().map(JsonObject::new).toList();
+        assertEquals(List.of(1, 2, 4, 5), results.stream().map(result -> result.getInteger("line")).toList());
+        assertNotNull(results.get(0).getString("transactionId"));
+        assertEquals("Request item is not valid JSON", results.get(1).getString("message"));
+        assertNotNull(results.get(2).getString("transactionId"));
+        assertEquals(results.get(0).getString("transactionId"), results.get(3).getString("transactionId"));
+
+        assertEquals(TransactionStatus.COMPLETED, assertGetTransactionStatus("customer1", results.get(0).getString("transactionId")));
+        assertEquals(TransactionStatus.COMPLETED, assertGetTransactionStatus("customer1", results.get(2).getString("transactionId")));
+        assertPayerAccountBalance(results.get(0).getString("transactionId"), Money.fromInt(100));
+        assertRecipientAccountBalance(results.get(0).getString("transactionId"), Money.fromInt(200));
+    }
+
+    @Test
+    @SneakyThrows
+    public void testTransactionEventStream_Ok() {
+        arrangeDatabase("transfer/two-customers");
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:8080/customers/customer1/transactions/stream")).build();
+        HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+        assertEquals(200, response.statusCode());
+        assertEquals("text/event-stream", response.headers().firstValue("Content-Type").orElse(null));
+
+        String transactionId = assertSendTransfer("customer1", getJsonRequest("transfer/two-customers"));
+
+        try (Stream<String> lines = response.body()) {
+            List<JsonObject> events = CompletableFuture.supplyAsync(() -> {
+                List<JsonObject> received = new ArrayList<>();
+                Iterator<String> iterator = lines.iterator();
+                while (received.isEmpty() || !"COMPLETED".equals(received.get(received.size() - 1).getString("status"))) {
+                    String line = iterator.next();
+                    if (line.startsWith("data: ")) {
+                        received.add(new JsonObject(line.substring("data: ".length())));
+                    }
+                }
+                return received;
+            }).get(15, TimeUnit.SECONDS);
+
+            assertEquals(List.of("PROCESSING", "COMPLETED"), events.stream().map(event -> event.getString("status")).toList());
+            assertTrue(events.stream().allMatch(event -> transactionId.equals(event.getString("transactionId"))));
+            assertEquals("TRANSFER", events.get(0).getString("type"));
+        }
+    }
+}
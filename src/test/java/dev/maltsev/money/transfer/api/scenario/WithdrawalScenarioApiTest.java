@@ -31,7 +31,8 @@ public class WithdrawalScenarioApiTest extends AbstractDatabaseTest {
 
     @BeforeAll
     public static void startServer() {
-        Application.main(new String[]{"--recoveryInterval", "100"});
+        // the database is cleaned up after every test behind the back of the idempotency cache, so it's disabled
+        Application.main(new String[]{"--recoveryInterval", "100", "--idempotencyCacheSize", "0", "--withdrawalPollMaxInterval", "2000"});
         RestAssured.baseURI = "http://localhost";
         RestAssured.port = 8080;
     }
@@ -142,6 +143,39 @@ public class WithdrawalScenarioApiTest extends AbstractDatabaseTest {
         }
     }
 
+    @Test
+    public void testWithdraw_WaitForTerminalStatus_Ok() {
+        arrangeDatabase("withdraw/single");
+
+        String transactionId = assertWithdrawal("customer", getJsonRequest("withdraw/single"));
+        // the downstream service finishes withdrawals within 10 seconds, so a single request is enough
+        String status = given()
+                .queryParam("waitMs", 15000)
+                .when()
+                .get("/customers/%s/transactions/%s/status".formatted("customer", transactionId))
+                .then()
+                .statusCode(200)
+                .extract()
+                .path("status");
+
+        assertTrue(EnumSet.of(COMPLETED, FAILED).contains(TransactionStatus.valueOf(status)));
+    }
+
+    @Test
+    public void testWithdraw_InvalidWaitTime_Fail() {
+        arrangeDatabase("withdraw/single");
+
+        String transactionId = assertWithdrawal("customer", getJsonRequest("withdraw/single"));
+
+        given()
+                .queryParam("waitMs", "-1")
+                .when()
+                .get("/customers/%s/transactions/%s/status".formatted("customer", transactionId))
+                .then()
+                .statusCode(400)
+                .body("message", Matchers.equalTo("waitMs must be a non-negative integer"));
+    }
+
     @Test
     public void testWithdraw_InsufficientFunds_Fail() {
         arrangeDatabase("withdraw/insufficient-funds");
@@ -0,0 +1,61 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+import dev.maltsev.money.transfer.api.service.impl.IdempotencyCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyCacheTest {
+
+    @Test
+    public void testGet_Ok() {
+        IdempotencyCache cache = new IdempotencyCache(10, 60_000);
+        long hits = (long) Metrics.snapshot().get("idempotencyCache.hits");
+        cache.put("request1", "payer1", "transaction1");
+
+        assertEquals("transaction1", cache.get("request1", "payer1"));
+        assertNull(cache.get("request1", "payer2"));
+        assertEquals(hits + 1, Metrics.snapshot().get("idempotencyCache.hits"));
+    }
+
+    @Test
+    public void testPut_EvictsEldestOverMaxSize() {
+        IdempotencyCache cache = new IdempotencyCache(2, 60_000);
+        cache.put("request1", "payer", "transaction1");
+        cache.put("request2", "payer", "transaction2");
+        cache.put("request3", "payer", "transaction3");
+
+        assertNull(cache.get("request1", "payer"));
+        assertEquals("transaction2", cache.get("request2", "payer"));
+        assertEquals("transaction3", cache.get("request3", "payer"));
+    }
+
+    @Test
+    public void testGet_ExpiredAfterTtl() throws InterruptedException {
+        IdempotencyCache cache = new IdempotencyCache(10, 1);
+        cache.put("request1", "payer", "transaction1");
+        Thread.sleep(5);
+
+        assertNull(cache.get("request1", "payer"));
+    }
+
+    @Test
+    public void testPut_Existing_KeepsExpiration() throws InterruptedException {
+        IdempotencyCache cache = new IdempotencyCache(10, 50);
+        cache.put("request1", "payer", "transaction1");
+        Thread.sleep(30);
+        cache.put("request1", "payer", "transaction1");
+        Thread.sleep(30);
+
+        // expired 50ms after the first put, rather than the second one
+        assertNull(cache.get("request1", "payer"));
+    }
+
+    @Test
+    public void testDisabled() {
+        IdempotencyCache.DISABLED.put("request1", "payer", "transaction1");
+
+        assertNull(IdempotencyCache.DISABLED.get("request1", "payer"));
+    }
+}
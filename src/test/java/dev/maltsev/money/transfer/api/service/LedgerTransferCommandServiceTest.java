@@ -0,0 +1,147 @@
+package dev.maltsev.money.transfer.api.service;
+
+import dev.maltsev.money.transfer.api.domain.entity.Account;
+import dev.maltsev.money.transfer.api.domain.entity.Customer;
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.service.impl.IdempotencyCache;
+import dev.maltsev.money.transfer.api.service.impl.LedgerTransferCommandService;
+import dev.maltsev.money.transfer.api.service.impl.WithdrawCommandService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.sql2o.Connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionById;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerTransferCommandServiceTest extends AbstractDatabaseTest {
+
+    @AfterEach
+    public void tearDown() {
+        cleanupDatabase();
+    }
+
+    @Test
+    public void testExecuteTransactions_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(300))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        List<TransactionStatus> notified = new ArrayList<>();
+        LedgerTransferCommandService commandService = new LedgerTransferCommandService(sql2o, transaction -> notified.add(transaction.status()));
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "debit", "credit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+
+        // Act: the repeated transfer is recognized by the engine even if it's not persisted yet
+        Map<String, TransactionStatus> statuses = commandService.executeTransactions(List.of(first.id(), second.id()));
+        TransactionStatus repeatedStatus = commandService.executeTransaction(first.id());
+        commandService.close(10_000);
+
+        // Assert
+        assertEquals(Map.of(first.id(), TransactionStatus.COMPLETED, second.id(), TransactionStatus.COMPLETED), statuses);
+        assertEquals(TransactionStatus.COMPLETED, repeatedStatus);
+        assertEquals(List.of(TransactionStatus.COMPLETED, TransactionStatus.COMPLETED), notified);
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(350)))
+                .addAccount(new Account("debit", Money.fromInt(50))));
+        try (Connection connection = sql2o.open()) {
+            assertEquals(TransactionStatus.COMPLETED, findTransactionById(second.id(), connection).status());
+        }
+    }
+
+    @Test
+    public void testExecuteTransaction_InsufficientFunds_Fail() {
+        // Arrange: the accounts are created after the engine has started
+        LedgerTransferCommandService commandService = new LedgerTransferCommandService(sql2o);
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+
+        // Act
+        TransactionStatus firstStatus = commandService.executeTransaction(first);
+        TransactionStatus secondStatus = commandService.executeTransaction(second.id());
+        commandService.close(10_000);
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, firstStatus);
+        assertEquals(TransactionStatus.FAILED, secondStatus);
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(50)))
+                .addAccount(new Account("debit", Money.fromInt(250))));
+        try (Connection connection = sql2o.open()) {
+            Transaction failed = findTransactionById(second.id(), connection);
+            assertEquals(TransactionStatus.FAILED, failed.status());
+            assertTrue(failed.errorMessage().contains("Insufficient funds in account 'credit'"));
+        }
+    }
+
+    @Test
+    public void testExecuteTransaction_AfterWithdrawal_InsufficientFunds_Fail() {
+        // Arrange: the withdrawal is debited through the engine, so the engine knows the funds left
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(300))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        LedgerTransferCommandService commandService = new LedgerTransferCommandService(sql2o);
+        WithdrawCommandService withdrawCommandService = new WithdrawCommandService(sql2o, ITransactionListener.NONE,
+                IdempotencyCache.DISABLED, 0, commandService);
+        Transaction withdrawal = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(250))
+                .toTransaction(customer.login());
+        Transaction overdraft = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100))
+                .toTransaction(customer.login());
+        Transaction transfer = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(withdrawal);
+        arrangeTransaction(overdraft);
+        arrangeTransaction(transfer);
+
+        // Act
+        TransactionStatus withdrawalStatus = withdrawCommandService.executeTransaction(withdrawal.id());
+        TransactionStatus overdraftStatus = withdrawCommandService.executeTransaction(overdraft.id());
+        TransactionStatus transferStatus = commandService.executeTransaction(transfer.id());
+        commandService.close(10_000);
+
+        // Assert
+        assertEquals(TransactionStatus.AWAITING, withdrawalStatus);
+        assertEquals(TransactionStatus.FAILED, overdraftStatus);
+        assertEquals(TransactionStatus.FAILED, transferStatus);
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(50)))
+                .addAccount(new Account("debit", Money.fromInt(100))));
+    }
+
+    @Test
+    public void testExecuteTransaction_PersistenceFailed_NotCompleted() {
+        // Arrange: the history of the first transfer is taken already, so it can never be persisted
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(300))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        LedgerTransferCommandService commandService = new LedgerTransferCommandService(sql2o);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(50)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+        try (Connection connection = sql2o.open()) {
+            connection.createQuery("INSERT INTO TRANSACTION_HISTORY (ID, STATUS, TIMESTAMP) VALUES (:id, 'COMPLETED', CURRENT_TIMESTAMP)")
+                    .addParameter("id", first.id())
+                    .executeUpdate();
+        }
+
+        // Act: the engine stops accepting transfers, as it can't persist the balances it keeps anymore
+        assertThrows(IllegalStateException.class, () -> commandService.executeTransaction(first.id()));
+        assertThrows(IllegalStateException.class, () -> commandService.executeTransaction(second.id()));
+        commandService.close(10_000);
+
+        // Assert
+        assertCustomerAccounts(customer);
+        try (Connection connection = sql2o.open()) {
+            assertEquals(TransactionStatus.PROCESSING, findTransactionById(first.id(), connection).status());
+            assertEquals(TransactionStatus.PROCESSING, findTransactionById(second.id(), connection).status());
+        }
+    }
+}
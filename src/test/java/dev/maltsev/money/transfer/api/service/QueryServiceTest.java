@@ -7,12 +7,16 @@ import dev.maltsev.money.transfer.api.domain.entity.Transaction;
 import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
 import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
 import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionKey;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.domain.object.TransactionType;
 import dev.maltsev.money.transfer.api.service.exception.UnknownTransactionException;
 import dev.maltsev.money.transfer.api.service.impl.QueryService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -53,7 +57,7 @@ public class QueryServiceTest extends AbstractDatabaseTest {
     }
 
     @Test
-    public void testGetAllStuckTransactions_TransferRequest_Ok() {
+    public void testGetStuckTransactions_TransferRequest_Ok() {
         // Arrange
         Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
         arrangeCustomer(customer);
@@ -64,7 +68,8 @@ public class QueryServiceTest extends AbstractDatabaseTest {
         transaction.setUpdated(transaction.created().minusSeconds(61));
         arrangeTransaction(transaction);
         // Act
-        List<Transaction> stuckTransactions = queryService.getAllStuckTransactions();
+        List<TransactionKey> stuckTransactions = queryService.getStuckTransactions(TransactionType.TRANSFER, TransactionStatus.PROCESSING,
+                LocalDateTime.now().minusMinutes(1), null, 100);
 
         // Assert
         assertNotNull(stuckTransactions);
@@ -73,7 +78,7 @@ public class QueryServiceTest extends AbstractDatabaseTest {
     }
 
     @Test
-    public void testGetAllStuckTransactions_WithdrawRequest_Ok() {
+    public void testGetStuckTransactions_WithdrawRequest_Ok() {
         // Arrange
         Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
         arrangeCustomer(customer);
@@ -85,7 +90,8 @@ public class QueryServiceTest extends AbstractDatabaseTest {
         arrangeTransaction(transaction);
 
         // Act
-        List<Transaction> stuckTransactions = queryService.getAllStuckTransactions();
+        List<TransactionKey> stuckTransactions = queryService.getStuckTransactions(TransactionType.WITHDRAWAL, TransactionStatus.PROCESSING,
+                LocalDateTime.now().minusMinutes(1), null, 100);
 
         // Assert
         assertNotNull(stuckTransactions);
@@ -94,7 +100,7 @@ public class QueryServiceTest extends AbstractDatabaseTest {
     }
 
     @Test
-    public void testGetAllStuckTransactions_Negative() {
+    public void testGetStuckTransactions_Negative() {
         // Arrange
         Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
         arrangeCustomer(customer);
@@ -118,10 +124,38 @@ public class QueryServiceTest extends AbstractDatabaseTest {
         arrangeTransaction(transaction4);
 
         // Act
-        List<Transaction> stuckTransactions = queryService.getAllStuckTransactions();
+        List<TransactionKey> stuckTransactions = queryService.getStuckTransactions(TransactionType.TRANSFER, TransactionStatus.PROCESSING,
+                LocalDateTime.now().minusMinutes(1), null, 100);
 
         // Assert
         assertNotNull(stuckTransactions);
         assertEquals(0, stuckTransactions.size());
     }
+
+    @Test
+    public void testGetStuckTransactions_Pages_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        List<String> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Transaction transaction = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(10))
+                    .toTransaction(customer.login());
+            transaction.setStatus(TransactionStatus.AWAITING);
+            transaction.setUpdated(transaction.created().minusSeconds(63 - i));
+            arrangeTransaction(transaction);
+            transactionIds.add(transaction.id());
+        }
+
+        // Act
+        LocalDateTime updatedBefore = LocalDateTime.now().minusMinutes(1);
+        List<TransactionKey> firstPage = queryService.getStuckTransactions(TransactionType.WITHDRAWAL, TransactionStatus.AWAITING,
+                updatedBefore, null, 2);
+        List<TransactionKey> lastPage = queryService.getStuckTransactions(TransactionType.WITHDRAWAL, TransactionStatus.AWAITING,
+                updatedBefore, firstPage.get(1), 2);
+
+        // Assert
+        assertEquals(transactionIds.subList(0, 2), firstPage.stream().map(TransactionKey::id).toList());
+        assertEquals(transactionIds.subList(2, 3), lastPage.stream().map(TransactionKey::id).toList());
+    }
 }
@@ -5,17 +5,23 @@ import dev.maltsev.money.transfer.api.domain.entity.Customer;
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
 import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
 import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.domain.object.TransactionResult;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.service.impl.IdempotencyCache;
 import dev.maltsev.money.transfer.api.service.impl.TransferCommandService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.sql2o.Connection;
 
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.getAllTransactions;
+import static dev.maltsev.money.transfer.api.dao.TransactionHistoryDao.findAllTransactionHistoriesById;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TransferCommandServiceTest extends AbstractDatabaseTest {
@@ -121,6 +127,131 @@ public class TransferCommandServiceTest extends AbstractDatabaseTest {
         assertEquals(TransactionStatus.COMPLETED, status);
     }
 
+    @Test
+    public void testExecuteTransaction_createdTransaction_Ok() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeTransaction(transaction);
+
+        // Act
+        TransactionStatus status = transferCommandService.executeTransaction(transaction);
+        // a stale copy takes the status from the database rather than being executed again
+        Transaction staleCopy = new Transaction(transaction.id(), transaction.requestId(), transaction.payer(), transaction.payerAccountNumber(),
+                transaction.recipient(), transaction.recipientAccountNumber(), null, transaction.amount(), transaction.type(),
+                TransactionStatus.PROCESSING, null, transaction.created(), transaction.updated());
+        TransactionStatus repeatedStatus = transferCommandService.executeTransaction(staleCopy);
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, status);
+        assertEquals(TransactionStatus.COMPLETED, repeatedStatus);
+        assertEquals(TransactionStatus.COMPLETED, staleCopy.status());
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100)))
+                .addAccount(new Account("debit", Money.fromInt(200))));
+    }
+
+    @Test
+    public void testCreateAndExecuteTransaction_Ok() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        List<TransactionStatus> statuses = new ArrayList<>();
+        TransferCommandService commandService = new TransferCommandService(sql2o, transaction -> statuses.add(transaction.status()));
+
+        // Act
+        Transaction transaction = commandService.createAndExecuteTransaction(request.toTransaction(customer.login()));
+        // a repeated request returns the executed transaction rather than executing a new one
+        Transaction repeatedTransaction = commandService.createAndExecuteTransaction(request.toTransaction(customer.login()));
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, transaction.status());
+        assertEquals(transaction.id(), repeatedTransaction.id());
+        assertEquals(TransactionStatus.COMPLETED, repeatedTransaction.status());
+        assertEquals(List.of(TransactionStatus.COMPLETED), statuses);
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100)))
+                .addAccount(new Account("debit", Money.fromInt(200))));
+    }
+
+    @Test
+    public void testCreateAndExecuteTransaction_InsufficientFunds_Fail() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(300));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+
+        // Act
+        Transaction transaction = transferCommandService.createAndExecuteTransaction(request.toTransaction(customer.login()));
+
+        // Assert: the failure is committed along with the creation
+        assertEquals(TransactionStatus.FAILED, transaction.status());
+        try (Connection connection = sql2o.open()) {
+            assertEquals(TransactionStatus.FAILED, getAllTransactions(connection).get(0).status());
+        }
+        assertCustomerAccounts(customer);
+    }
+
+    @Test
+    public void testCreateAndExecuteTransaction_existingTransaction_Ok() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        String transactionId = transferCommandService.createTransaction(request.toTransaction(customer.login()));
+
+        // Act
+        Transaction transaction = transferCommandService.createAndExecuteTransaction(request.toTransaction(customer.login()));
+
+        // Assert: the transaction created before is executed instead
+        assertEquals(transactionId, transaction.id());
+        assertEquals(TransactionStatus.COMPLETED, transaction.status());
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100)))
+                .addAccount(new Account("debit", Money.fromInt(200))));
+    }
+
+    @Test
+    public void testExecuteTransaction_notifiesListener_Ok() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        List<TransactionStatus> statuses = new ArrayList<>();
+        TransferCommandService commandService = new TransferCommandService(sql2o, transaction -> statuses.add(transaction.status()));
+
+        // Act
+        String transactionId = commandService.createTransaction(request.toTransaction(customer.login()));
+        commandService.createTransaction(request.toTransaction(customer.login()));
+        commandService.executeTransaction(transactionId);
+        commandService.executeTransaction(transactionId);
+
+        // Assert
+        assertEquals(List.of(TransactionStatus.PROCESSING, TransactionStatus.COMPLETED), statuses);
+    }
+
+    @Test
+    public void testCreateTransaction_cachedRetry_Ok() {
+        // Arrange
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        TransferCommandService commandService = new TransferCommandService(sql2o, ITransactionListener.NONE, new IdempotencyCache(10, 60_000));
+        String transactionId = commandService.createTransaction(request.toTransaction(customer.login()));
+        cleanupDatabase();
+
+        // Act
+        String retriedTransactionId = commandService.createTransaction(request.toTransaction(customer.login()));
+        List<TransactionResult> retriedResults = commandService.createTransactions(List.of(request.toTransaction(customer.login())));
+
+        // Assert: the retries are answered from the cache, as the database doesn't have the transaction anymore
+        assertEquals(transactionId, retriedTransactionId);
+        assertEquals(List.of(TransactionResult.success(transactionId)), retriedResults);
+        try (Connection connection = sql2o.open()) {
+            assertTrue(getAllTransactions(connection).isEmpty());
+        }
+    }
+
     @Test
     public void testExecuteTransaction_InsufficientFunds_Fail() {
         // Arrange
@@ -136,4 +267,253 @@ public class TransferCommandServiceTest extends AbstractDatabaseTest {
         // Assert
         assertEquals(TransactionStatus.FAILED, status);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testExecuteTransaction_foreignRecipientAccount_Fail() {
+        // Arrange: the recipient account belongs to another customer than the one in the request
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "foreign", "login", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Customer otherCustomer = new Customer("other").addAccount(new Account("foreign", Money.fromInt(100)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeCustomer(otherCustomer);
+        arrangeTransaction(transaction);
+
+        // Act
+        TransactionStatus status = transferCommandService.executeTransaction(transaction.id());
+
+        // Assert
+        assertEquals(TransactionStatus.FAILED, status);
+        assertCustomerAccounts(customer);
+        assertCustomerAccounts(otherCustomer);
+    }
+
+    @Test
+    public void testExecuteTransaction_parallelOppositeTransfers_Ok() throws InterruptedException, ExecutionException {
+        // Arrange
+        Customer first = new Customer("first").addAccount(new Account("first-account", Money.fromInt(100)));
+        Customer second = new Customer("second").addAccount(new Account("second-account", Money.fromInt(100)));
+        arrangeCustomer(first);
+        arrangeCustomer(second);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            transactions.add(new TransferRequest(UUID.randomUUID(), "first-account", "second-account", "second", Money.fromInt(1))
+                    .toTransaction(first.login()));
+            transactions.add(new TransferRequest(UUID.randomUUID(), "second-account", "first-account", "first", Money.fromInt(1))
+                    .toTransaction(second.login()));
+        }
+        transactions.forEach(AbstractDatabaseTest::arrangeTransaction);
+
+        // Act: the accounts are locked in the same order by the transfers of both directions
+        try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+            List<Future<TransactionStatus>> futures = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                futures.add(executorService.submit(() -> transferCommandService.executeTransaction(transaction.id())));
+            }
+
+            // Assert
+            for (Future<TransactionStatus> future : futures) {
+                assertEquals(TransactionStatus.COMPLETED, future.get());
+            }
+        }
+        assertCustomerAccounts(first);
+        assertCustomerAccounts(second);
+    }
+
+    @Test
+    public void testExecuteTransactions_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(300))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "debit", "credit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+        String nonExistentTransactionId = UUID.randomUUID().toString();
+
+        // Act: the second transfer is covered by the first one only
+        Map<String, TransactionStatus> statuses = transferCommandService.executeTransactions(List.of(first.id(), second.id(),
+                nonExistentTransactionId));
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(first.id()));
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(second.id()));
+        assertTrue(statuses.containsKey(nonExistentTransactionId));
+        assertNull(statuses.get(nonExistentTransactionId));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(350)))
+                .addAccount(new Account("debit", Money.fromInt(50))));
+        try (Connection connection = sql2o.open()) {
+            assertTrue(findAllTransactionHistoriesById(second.id(), connection).stream()
+                    .anyMatch(history -> history.status() == TransactionStatus.COMPLETED));
+        }
+    }
+
+    @Test
+    public void testExecuteTransactions_InsufficientFunds_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+
+        // Act: the batch falls back to the transfers one by one, so only the second one fails
+        Map<String, TransactionStatus> statuses = transferCommandService.executeTransactions(List.of(first.id(), second.id()));
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(first.id()));
+        assertEquals(TransactionStatus.FAILED, statuses.get(second.id()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(50)))
+                .addAccount(new Account("debit", Money.fromInt(250))));
+    }
+
+    @Test
+    public void testExecuteCreatedTransactions_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(300))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "debit", "credit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        Transaction processed = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(10)).toTransaction(customer.login());
+        Transaction nonExistent = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(10)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+        arrangeTransaction(processed);
+        transferCommandService.executeTransaction(processed.id());
+
+        // Act: the processed transfer is sent as created, so only its status read from the database tells it apart
+        Map<String, TransactionStatus> statuses = transferCommandService.executeCreatedTransactions(List.of(first, second, processed,
+                nonExistent));
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(first.id()));
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(second.id()));
+        assertEquals(TransactionStatus.COMPLETED, first.status());
+        assertEquals(TransactionStatus.COMPLETED, processed.status());
+        assertTrue(statuses.containsKey(nonExistent.id()));
+        assertNull(statuses.get(nonExistent.id()));
+        // debited by the processed transfer once only
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(340)))
+                .addAccount(new Account("debit", Money.fromInt(60))));
+    }
+
+    @Test
+    public void testExecuteCreatedTransactions_InsufficientFunds_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+
+        // Act: the batch falls back to the transfers one by one, so only the second one fails
+        Map<String, TransactionStatus> statuses = transferCommandService.executeCreatedTransactions(List.of(first, second));
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, statuses.get(first.id()));
+        assertEquals(TransactionStatus.FAILED, statuses.get(second.id()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(50)))
+                .addAccount(new Account("debit", Money.fromInt(250))));
+    }
+
+    @Test
+    public void testExecuteTransaction_stripedAccount_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        assertEquals(List.of("debit"), transferCommandService.stripeAccounts(List.of("debit", "unknown"), 4));
+        Transaction credit = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction debit = new TransferRequest(UUID.randomUUID(), "debit", "credit", "login", Money.fromInt(150)).toTransaction(customer.login());
+        arrangeTransaction(credit);
+        arrangeTransaction(debit);
+
+        // Act: the credit goes to a stripe, while the debit exceeds the balance of the account itself, so the stripes are folded into it
+        TransactionStatus creditStatus = transferCommandService.executeTransaction(credit.id());
+        BigDecimal stripesAfterCredit = getStripesBalance();
+        TransactionStatus debitStatus = transferCommandService.executeTransaction(debit.id());
+
+        // Assert
+        assertEquals(TransactionStatus.COMPLETED, creditStatus);
+        assertEquals(0, new BigDecimal(100).compareTo(stripesAfterCredit));
+        assertEquals(TransactionStatus.COMPLETED, debitStatus);
+        assertEquals(0, BigDecimal.ZERO.compareTo(getStripesBalance()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(250)))
+                .addAccount(new Account("debit", Money.fromInt(50))));
+    }
+
+    @Test
+    public void testExecuteTransactions_stripedAccount_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        transferCommandService.stripeAccounts(List.of("debit"), 4);
+        Transaction first = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        Transaction second = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(50)).toTransaction(customer.login());
+        arrangeTransaction(first);
+        arrangeTransaction(second);
+
+        // Act: the batch credits the striped recipient by its stripes rather than the account itself
+        Map<String, TransactionStatus> statuses = transferCommandService.executeTransactions(List.of(first.id(), second.id()));
+
+        // Assert
+        assertEquals(Map.of(first.id(), TransactionStatus.COMPLETED, second.id(), TransactionStatus.COMPLETED), statuses);
+        assertEquals(0, new BigDecimal(150).compareTo(getStripesBalance()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(50)))
+                .addAccount(new Account("debit", Money.fromInt(250))));
+    }
+
+    @Test
+    public void testCompactAccountStripes_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        transferCommandService.stripeAccounts(List.of("debit"), 4);
+        Transaction transaction = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(transaction);
+        transferCommandService.executeTransaction(transaction.id());
+
+        // Act
+        transferCommandService.compactAccountStripes();
+
+        // Assert
+        assertEquals(0, BigDecimal.ZERO.compareTo(getStripesBalance()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100)))
+                .addAccount(new Account("debit", Money.fromInt(200))));
+    }
+
+    private static BigDecimal getStripesBalance() {
+        try (Connection connection = sql2o.open()) {
+            return connection.createQuery("SELECT COALESCE(SUM(balance), 0) FROM account_stripes").executeScalar(BigDecimal.class);
+        }
+    }
+
+    @Test
+    public void testCreateTransactions_Ok() {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200))).addAccount(new Account("debit", Money.fromInt(100)));
+        arrangeCustomer(customer);
+        Transaction existing = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(100)).toTransaction(customer.login());
+        arrangeTransaction(existing);
+        TransferRequest request = new TransferRequest(UUID.randomUUID(), "credit", "debit", "login", Money.fromInt(50));
+        TransferRequest repeatedExisting = new TransferRequest(UUID.fromString(existing.requestId()), "credit", "debit", "login", Money.fromInt(100));
+
+        // Act
+        List<TransactionResult> results = transferCommandService.createTransactions(List.of(
+                request.toTransaction(customer.login()),
+                repeatedExisting.toTransaction(customer.login()),
+                request.toTransaction(customer.login())));
+
+        // Assert
+        assertEquals(3, results.size());
+        assertTrue(results.stream().allMatch(TransactionResult::succeeded));
+        assertEquals(existing.id(), results.get(1).transactionId());
+        assertEquals(results.get(0).transactionId(), results.get(2).transactionId());
+        assertNotEquals(existing.id(), results.get(0).transactionId());
+        try (Connection connection = sql2o.open()) {
+            assertEquals(2, getAllTransactions(connection).size());
+            assertEquals(1, findAllTransactionHistoriesById(results.get(0).transactionId(), connection).size());
+        }
+    }
+}
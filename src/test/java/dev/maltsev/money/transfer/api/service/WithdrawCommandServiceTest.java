@@ -3,21 +3,31 @@ package dev.maltsev.money.transfer.api.service;
 import dev.maltsev.money.transfer.api.domain.entity.Account;
 import dev.maltsev.money.transfer.api.domain.entity.Customer;
 import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.entity.TransactionHistory;
 import dev.maltsev.money.transfer.api.domain.json.WithdrawRequest;
 import dev.maltsev.money.transfer.api.domain.object.Money;
 import dev.maltsev.money.transfer.api.domain.object.TransactionStatus;
+import dev.maltsev.money.transfer.api.service.impl.QueryService;
 import dev.maltsev.money.transfer.api.service.impl.WithdrawCommandService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.sql2o.Connection;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import static dev.maltsev.money.transfer.api.dao.AccountDao.getAllAccountBalances;
+import static dev.maltsev.money.transfer.api.dao.TransactionDao.findTransactionById;
+import static dev.maltsev.money.transfer.api.dao.TransactionHistoryDao.findAllTransactionHistoriesById;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WithdrawCommandServiceTest extends AbstractDatabaseTest {
 
@@ -128,4 +138,203 @@ public class WithdrawCommandServiceTest extends AbstractDatabaseTest {
         // Assert
         assertEquals(TransactionStatus.FAILED, status);
     }
+
+    @Test
+    public void testExecuteTransaction_foreignAccount_Fail() {
+        // Arrange: the account belongs to another customer than the payer
+        WithdrawRequest request = new WithdrawRequest(UUID.randomUUID(), "foreign", "http://localhost:8090", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Customer otherCustomer = new Customer("other").addAccount(new Account("foreign", Money.fromInt(200)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeCustomer(otherCustomer);
+        arrangeTransaction(transaction);
+
+        // Act
+        TransactionStatus status = withdrawCommandService.executeTransaction(transaction.id());
+
+        // Assert
+        assertEquals(TransactionStatus.FAILED, status);
+        assertCustomerAccounts(otherCustomer);
+    }
+
+    @Test
+    public void testExecuteTransaction_parallelOverdraft_Ok() throws InterruptedException, ExecutionException {
+        // Arrange: the withdrawals are twice as much as the balance in total
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(500)));
+        arrangeCustomer(customer);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Transaction transaction = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100))
+                    .toTransaction(customer.login());
+            arrangeTransaction(transaction);
+            transactions.add(transaction);
+        }
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+            // Act
+            List<Future<TransactionStatus>> futures = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                futures.add(executorService.submit(() -> withdrawCommandService.executeTransaction(transaction.id())));
+            }
+            List<TransactionStatus> statuses = new ArrayList<>();
+            for (Future<TransactionStatus> future : futures) {
+                statuses.add(future.get());
+            }
+
+            // Assert: every debit either fits the balance or fails, the balance never goes below zero
+            assertEquals(5, statuses.stream().filter(status -> status == TransactionStatus.AWAITING).count());
+            assertEquals(5, statuses.stream().filter(status -> status == TransactionStatus.FAILED).count());
+            try (Connection connection = sql2o.open()) {
+                assertEquals(0, getAllAccountBalances(connection).get("credit").signum());
+            }
+        }
+    }
+
+    @Test
+    public void testDispatchWithdrawals_Ok() {
+        // Arrange
+        WithdrawRequest request = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeTransaction(transaction);
+        // debited, while not sent until dispatched
+        assertEquals(TransactionStatus.AWAITING, withdrawCommandService.executeTransaction(transaction.id()));
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100))));
+        assertEquals(Map.of(), new QueryService(sql2o).getAwaitingTransactionChecks());
+
+        // Act
+        List<String> sent = withdrawCommandService.dispatchWithdrawals(100);
+        List<String> sentAgain = withdrawCommandService.dispatchWithdrawals(100);
+
+        // Assert
+        assertEquals(List.of(transaction.id()), sent);
+        assertEquals(List.of(), sentAgain);
+        assertEquals(Collections.singletonMap(transaction.id(), null), new QueryService(sql2o).getAwaitingTransactionChecks());
+    }
+
+    @Test
+    public void testDispatchWithdrawals_RejectedAfterProcessed_NotRefunded() {
+        // Arrange: the withdrawal is completed meanwhile, while its entry is back in the outbox at its last attempt
+        WithdrawRequest request = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeTransaction(transaction);
+        assertEquals(TransactionStatus.AWAITING, withdrawCommandService.executeTransaction(transaction.id()));
+        withdrawCommandService.dispatchWithdrawals(100);
+        try (Connection connection = sql2o.open()) {
+            // sending the same withdrawal to another address and with another amount is rejected by the service
+            connection.createQuery("UPDATE TRANSACTIONS SET STATUS = 'COMPLETED', AMOUNT = 50, WITHDRAWAL_ADDRESS = 'elsewhere' WHERE ID = :id")
+                    .addParameter("id", transaction.id())
+                    .executeUpdate();
+            connection.createQuery("INSERT INTO WITHDRAWAL_OUTBOX (ID, ATTEMPTS, NEXT_ATTEMPT_AT) VALUES (:id, 4, :now)")
+                    .addParameter("id", transaction.id())
+                    .addParameter("now", LocalDateTime.now())
+                    .executeUpdate();
+        }
+
+        // Act
+        withdrawCommandService.dispatchWithdrawals(100);
+
+        // Assert
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100))));
+        try (Connection connection = sql2o.open()) {
+            assertEquals(TransactionStatus.COMPLETED, findTransactionById(transaction.id(), connection).status());
+            assertTrue(findAllTransactionHistoriesById(transaction.id(), connection).stream()
+                    .noneMatch(history -> history.status() == TransactionStatus.FAILED));
+        }
+    }
+
+    @Test
+    public void testDispatchWithdrawals_FailedSendsKnownToService_NotRefunded() {
+        // Arrange: the withdrawal has reached the service, while its entry is back in the outbox at its last attempt
+        WithdrawRequest request = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeTransaction(transaction);
+        assertEquals(TransactionStatus.AWAITING, withdrawCommandService.executeTransaction(transaction.id()));
+        withdrawCommandService.dispatchWithdrawals(100);
+        try (Connection connection = sql2o.open()) {
+            // sending the same withdrawal to another address and with another amount is rejected by the service
+            connection.createQuery("UPDATE TRANSACTIONS SET AMOUNT = 50, WITHDRAWAL_ADDRESS = 'elsewhere' WHERE ID = :id")
+                    .addParameter("id", transaction.id())
+                    .executeUpdate();
+            connection.createQuery("INSERT INTO WITHDRAWAL_OUTBOX (ID, ATTEMPTS, NEXT_ATTEMPT_AT) VALUES (:id, 4, :now)")
+                    .addParameter("id", transaction.id())
+                    .addParameter("now", LocalDateTime.now())
+                    .executeUpdate();
+        }
+
+        // Act
+        List<String> sent = withdrawCommandService.dispatchWithdrawals(100);
+
+        // Assert: awaited like any sent withdrawal rather than refunded
+        assertEquals(List.of(transaction.id()), sent);
+        assertCustomerAccounts(new Customer("login").addAccount(new Account("credit", Money.fromInt(100))));
+        assertEquals(Collections.singletonMap(transaction.id(), null), new QueryService(sql2o).getAwaitingTransactionChecks());
+    }
+
+    @Test
+    public void testCheckTransaction_InProgress_Ok() {
+        // Arrange
+        WithdrawRequest request = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100));
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        Transaction transaction = request.toTransaction(customer.login());
+        arrangeCustomer(customer);
+        arrangeTransaction(transaction);
+        // the withdrawal is sent, while it's finalised in a second at the earliest
+        assertEquals(TransactionStatus.AWAITING, withdrawCommandService.executeTransaction(transaction.id()));
+        withdrawCommandService.dispatchWithdrawals(100);
+        LocalDateTime nextCheckAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.SECONDS);
+
+        // Act
+        TransactionStatus status = withdrawCommandService.checkTransaction(transaction.id());
+        withdrawCommandService.saveNextChecks(Map.of(transaction.id(), nextCheckAt));
+
+        // Assert
+        assertEquals(TransactionStatus.AWAITING, status);
+        assertEquals(Map.of(transaction.id(), nextCheckAt), new QueryService(sql2o).getAwaitingTransactionChecks());
+    }
+
+    @Test
+    public void testCheckTransactions_Final_Ok() throws InterruptedException {
+        // Arrange
+        Customer customer = new Customer("login").addAccount(new Account("credit", Money.fromInt(200)));
+        arrangeCustomer(customer);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Transaction transaction = new WithdrawRequest(UUID.randomUUID(), "credit", "http://localhost:8090", Money.fromInt(100))
+                    .toTransaction(customer.login());
+            arrangeTransaction(transaction);
+            assertEquals(TransactionStatus.AWAITING, withdrawCommandService.executeTransaction(transaction.id()));
+            transactions.add(transaction);
+        }
+        withdrawCommandService.dispatchWithdrawals(100);
+        List<String> transactionIds = transactions.stream().map(Transaction::id).toList();
+
+        // Act
+        Map<String, TransactionStatus> statuses = withdrawCommandService.checkTransactions(transactionIds);
+        // the withdrawals are finalised in 10 seconds at the latest
+        for (int i = 0; i < 120 && statuses.containsValue(TransactionStatus.AWAITING); i++) {
+            Thread.sleep(100);
+            statuses = withdrawCommandService.checkTransactions(transactionIds);
+        }
+
+        // Assert
+        long completed = statuses.values().stream().filter(status -> status == TransactionStatus.COMPLETED).count();
+        long failed = statuses.values().stream().filter(status -> status == TransactionStatus.FAILED).count();
+        assertEquals(2, completed + failed);
+        try (Connection connection = sql2o.open()) {
+            statuses.forEach((transactionId, status) -> {
+                List<TransactionHistory> histories = findAllTransactionHistoriesById(transactionId, connection);
+                assertTrue(histories.stream().anyMatch(history -> history.status() == status));
+            });
+            // read as a plain balance, since it's empty once both are completed, which isn't a valid amount of money
+            assertEquals(0, BigDecimal.valueOf(200 - 100 * completed).compareTo(getAllAccountBalances(connection).get("credit")));
+        }
+        assertEquals(Map.of(), new QueryService(sql2o).getAwaitingTransactionChecks());
+    }
 }
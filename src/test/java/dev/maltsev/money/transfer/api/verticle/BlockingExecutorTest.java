@@ -0,0 +1,90 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockingExecutorTest {
+
+    private final Vertx vertx = Vertx.vertx();
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @SneakyThrows
+    @Test
+    void testVirtualThreads_CompletesOnCallerContext() {
+        BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx, "test", 1);
+        Context context = vertx.getOrCreateContext();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        context.runOnContext(v -> executor.execute(() -> Thread.currentThread().isVirtual())
+                .onComplete(res -> result.complete(res.result() && Vertx.currentContext() == context)));
+
+        assertTrue(result.get(5, TimeUnit.SECONDS));
+    }
+
+    @SneakyThrows
+    @Test
+    void testVirtualThreads_LimitsConcurrency() {
+        BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx, "test", 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Future<Integer>> futures = IntStream.range(0, 20).mapToObj(i -> executor.execute(() -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            running.decrementAndGet();
+            return i;
+        })).toList();
+
+        assertEquals(20, Future.all(futures).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).size());
+        assertEquals(2, maxRunning.get());
+    }
+
+    @SneakyThrows
+    @Test
+    void testVirtualThreads_FailsWithTaskException() {
+        BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx, "test", 1);
+
+        Future<Object> future = executor.execute(() -> {
+            throw new IllegalStateException("failure");
+        });
+
+        Throwable cause = assertThrows(Exception.class, () -> future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS)).getCause();
+        assertEquals("failure", cause.getMessage());
+    }
+
+    @SneakyThrows
+    @Test
+    void testVirtualThreads_Closed_FailsNewCalls() {
+        BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx, "test", 1);
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        Future<Integer> running = executor.execute(() -> {
+            started.complete(null);
+            Thread.sleep(50);
+            return 1;
+        });
+        started.get(5, TimeUnit.SECONDS);
+
+        executor.close();
+
+        // the running call is finished, while a new one isn't started
+        assertEquals(1, running.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, executor.execute(() -> 2).cause());
+    }
+}
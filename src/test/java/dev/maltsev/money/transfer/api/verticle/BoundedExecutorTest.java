@@ -0,0 +1,70 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.metrics.Metrics;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedExecutorTest {
+
+    // completes tasks only when told to, so they stay in flight
+    private final List<Promise<Object>> pending = new ArrayList<>();
+
+    private final BlockingExecutor manual = new BlockingExecutor() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Future<T> execute(Callable<T> task) {
+            Promise<Object> promise = Promise.promise();
+            pending.add(promise);
+            return (Future<T>) promise.future();
+        }
+    };
+
+    @Test
+    void testExecute_RejectsOverLimit() {
+        BoundedExecutor executor = new BoundedExecutor(manual, "test.reject", 2);
+
+        executor.execute(() -> 1);
+        executor.execute(() -> 2);
+        Future<Integer> rejected = executor.execute(() -> 3);
+
+        assertTrue(rejected.failed());
+        OverloadedException e = assertInstanceOf(OverloadedException.class, rejected.cause());
+        assertEquals(1, e.retryAfterSeconds());
+        assertEquals(2, pending.size());
+        assertEquals(1L, Metrics.snapshot().get("test.reject.rejected"));
+        assertEquals(2L, Metrics.snapshot().get("test.reject.inFlight"));
+    }
+
+    @Test
+    void testExecute_ReleasesOnCompletion() {
+        BoundedExecutor executor = new BoundedExecutor(manual, "test.release", 1);
+
+        executor.execute(() -> 1);
+        pending.get(0).complete(1);
+        Future<Integer> next = executor.execute(() -> 2);
+
+        assertFalse(next.failed());
+        assertEquals(2, pending.size());
+    }
+
+    @Test
+    void testTryAcquire_HoldsSlotUntilReleased() {
+        BoundedExecutor executor = new BoundedExecutor(manual, "test.acquire", 1);
+
+        assertTrue(executor.tryAcquire());
+        assertFalse(executor.tryAcquire());
+        executor.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2500));
+
+        assertTrue(executor.tryAcquire());
+        assertEquals(3, executor.overloaded().retryAfterSeconds());
+    }
+}
@@ -0,0 +1,93 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
+import io.vertx.core.Future;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerRateLimiterTest {
+
+    @Test
+    void testAcquire_RejectsOverBurst() {
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 0.1, 2, 10);
+
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        Future<Void> rejected = rateLimiter.acquire("customer1");
+
+        assertTrue(rejected.failed());
+        OverloadedException e = assertInstanceOf(OverloadedException.class, rejected.cause());
+        assertEquals(10, e.retryAfterSeconds());
+        // other customers have buckets of their own
+        assertTrue(rateLimiter.acquire("customer2").succeeded());
+    }
+
+    @Test
+    void testAcquire_Refills() throws InterruptedException {
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 100, 1, 10);
+
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        assertTrue(rateLimiter.acquire("customer1").failed());
+        Thread.sleep(20);
+
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+    }
+
+    @Test
+    void testSetLimit_AppliesToExistingBuckets() {
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 0.1, 1, 10);
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        assertTrue(rateLimiter.acquire("customer1").failed());
+
+        rateLimiter.setLimit(0.1, 3);
+
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        assertEquals(3, rateLimiter.burst());
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter.setLimit(0, 1));
+    }
+
+    @Test
+    void testAcquire_EvictsIdleCustomers() {
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 1_000_000, 1, 2);
+        rateLimiter.acquire("customer1");
+        rateLimiter.acquire("customer2");
+
+        // the buckets above are full again by now, so they're evicted to make room
+        assertTrue(rateLimiter.acquire("customer3").succeeded());
+
+        assertEquals(1, rateLimiter.size());
+    }
+
+    @Test
+    void testAcquire_EvictsIncrementally() {
+        int idleCustomers = 3 * CustomerRateLimiter.EVICTION_BATCH;
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 1_000_000, 1, idleCustomers);
+        for (int i = 0; i < idleCustomers; i++) {
+            rateLimiter.acquire("customer" + i);
+        }
+
+        assertTrue(rateLimiter.acquire("new1").succeeded());
+        assertEquals(idleCustomers - CustomerRateLimiter.EVICTION_BATCH + 1, rateLimiter.size());
+        // no eviction is needed while there's room
+        assertTrue(rateLimiter.acquire("new2").succeeded());
+        assertEquals(idleCustomers - CustomerRateLimiter.EVICTION_BATCH + 2, rateLimiter.size());
+    }
+
+    @Test
+    void testAcquire_FullWithActiveCustomers_RejectsNewCustomers() {
+        CustomerRateLimiter rateLimiter = new CustomerRateLimiter("test", 0.1, 1, 2);
+        assertTrue(rateLimiter.acquire("customer1").succeeded());
+        assertTrue(rateLimiter.acquire("customer2").succeeded());
+
+        // every new customer is rejected on its own, so none of them can use up the tokens of the others
+        Future<Void> rejected = rateLimiter.acquire("customer3");
+        assertTrue(rejected.failed());
+        assertEquals(10, assertInstanceOf(OverloadedException.class, rejected.cause()).retryAfterSeconds());
+        assertTrue(rateLimiter.acquire("customer4").failed());
+
+        // the limited customers are kept, so making up new customers doesn't reset them
+        assertTrue(rateLimiter.acquire("customer1").failed());
+        assertEquals(2, rateLimiter.size());
+    }
+}
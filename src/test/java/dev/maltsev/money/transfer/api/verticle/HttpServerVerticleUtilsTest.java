@@ -3,7 +3,9 @@ package dev.maltsev.money.transfer.api.verticle;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
 import dev.maltsev.money.transfer.api.service.exception.InvalidClientRequestException;
+import dev.maltsev.money.transfer.api.service.exception.OverloadedException;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RequestBody;
@@ -18,6 +20,9 @@ import static org.mockito.Mockito.*;
 
 class HttpServerVerticleUtilsTest {
 
+    private static final String TRANSFER_REQUEST = "{\"requestId\":\"f47ac10b-58cc-4372-a567-0e02b2c3d479\",\"payerAccountNumber\":\"account1\","
+            + "\"recipientAccountNumber\":\"account2\",\"recipient\":\"recipient\",\"amount\":%d}";
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @SneakyThrows
@@ -39,7 +44,7 @@ class HttpServerVerticleUtilsTest {
         RoutingContext context = mock(RoutingContext.class);
 
         RequestBody body = mock(RequestBody.class);
-        when(body.asJsonObject()).thenReturn(new JsonObject(json));
+        when(body.buffer()).thenReturn(Buffer.buffer(json));
         when(body.isEmpty()).thenReturn(false);
         when(context.body()).thenReturn(body);
 
@@ -48,6 +53,28 @@ class HttpServerVerticleUtilsTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    void testDeserializeBuffer() {
+        Buffer json = Buffer.buffer(TRANSFER_REQUEST.formatted(-1));
+
+        InvalidClientRequestException e = assertThrows(InvalidClientRequestException.class,
+                () -> HttpServerVerticleUtils.deserialize(json, TransferRequest.class));
+
+        // the same message as the one of binding a JsonObject
+        assertEquals("amount can't be zero or negative (through reference chain: dev.maltsev.money.transfer.api.domain.json.TransferRequest[\"amount\"])",
+                e.getMessage());
+    }
+
+    @Test
+    void testDeserializeBufferNotObject() {
+        assertEquals("Request item is not a JSON object", assertThrows(InvalidClientRequestException.class,
+                () -> HttpServerVerticleUtils.deserialize(Buffer.buffer("[]"), TransferRequest.class)).getMessage());
+        assertEquals("Request item is not valid JSON", assertThrows(InvalidClientRequestException.class,
+                () -> HttpServerVerticleUtils.deserialize(Buffer.buffer("{\"requestId\":"), TransferRequest.class)).getMessage());
+        assertEquals("Request item is not valid JSON", assertThrows(InvalidClientRequestException.class,
+                () -> HttpServerVerticleUtils.deserialize(Buffer.buffer(TRANSFER_REQUEST.formatted(1) + " {}"), TransferRequest.class)).getMessage());
+    }
+
     @Test
     void testDeserializeInvalidJson() {
         RoutingContext context = mock(RoutingContext.class);
@@ -92,4 +119,23 @@ class HttpServerVerticleUtilsTest {
         verify(response).setStatusCode(500);
         verify(response).send("Internal Server Error");
     }
+
+    @Test
+    void testHandleErrorOverloadedException() {
+        RoutingContext context = mock(RoutingContext.class);
+        HttpServerResponse response = mock(HttpServerResponse.class);
+        when(response.setStatusCode(Mockito.anyInt())).thenReturn(response);
+        when(response.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(response);
+
+        when(context.response()).thenReturn(response);
+
+        AsyncResult<?> res = mock(AsyncResult.class);
+        when(res.cause()).thenReturn(new OverloadedException("Too many requests", 3));
+
+        HttpServerVerticleUtils.handleError(context, res);
+
+        verify(response).setStatusCode(429);
+        verify(response).putHeader("Retry-After", "3");
+        verify(response).end(new JsonObject().put("message", "Too many requests").encode());
+    }
 }
@@ -0,0 +1,44 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.service.exception.InvalidClientRequestException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares binding a {@link TransferRequest} through an intermediate {@link JsonObject} with binding it right from the request buffer.
+ * <p>
+ * Run with {@code ./mvnw -P benchmark test-compile exec:exec -Dbenchmark="RequestDeserialization -prof gc"} to see the bytes allocated per
+ * operation ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestDeserializationBenchmark {
+
+    private final Buffer body = Buffer.buffer("""
+            {
+                "requestId": "f47ac10b-58cc-4372-a567-0e02b2c3d479",
+                "payerAccountNumber": "account1",
+                "recipientAccountNumber": "account2",
+                "recipient": "recipient",
+                "amount": 100.25
+            }
+            """);
+
+    @Benchmark
+    public TransferRequest jsonObject() {
+        return new JsonObject(body).mapTo(TransferRequest.class);
+    }
+
+    @Benchmark
+    public TransferRequest buffer() throws InvalidClientRequestException {
+        return HttpServerVerticleUtils.deserialize(body, TransferRequest.class);
+    }
+}
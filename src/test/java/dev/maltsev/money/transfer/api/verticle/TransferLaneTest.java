@@ -0,0 +1,124 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import dev.maltsev.money.transfer.api.domain.entity.Transaction;
+import dev.maltsev.money.transfer.api.domain.json.TransferRequest;
+import dev.maltsev.money.transfer.api.domain.object.Money;
+import dev.maltsev.money.transfer.api.service.ITransferCommandService;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class TransferLaneTest {
+
+    private final Vertx vertx = mock(Vertx.class);
+
+    private final ITransferCommandService commandService = mock(ITransferCommandService.class);
+
+    // timers fire only when told to
+    private final List<Handler<Long>> timers = new ArrayList<>();
+
+    // batches are executed only when told to, so they stay in flight
+    private final List<Runnable> pending = new ArrayList<>();
+
+    private final BlockingExecutor manual = new BlockingExecutor() {
+        @Override
+        public <T> Future<T> execute(Callable<T> task) {
+            Promise<T> promise = Promise.promise();
+            pending.add(() -> complete(task, promise));
+            return promise.future();
+        }
+    };
+
+    private final List<String> executed = new ArrayList<>();
+
+    {
+        when(vertx.setTimer(anyLong(), any())).thenAnswer(invocation -> {
+            timers.add(invocation.getArgument(1));
+            return (long) timers.size();
+        });
+    }
+
+    @Test
+    void testAdd_ExecutesInOrderOfReceipt() {
+        TransferLane lane = new TransferLane(vertx, commandService, manual, 3, 5, executed::add);
+        Transaction first = transfer();
+        Transaction second = transfer();
+        Transaction third = transfer();
+        String recovered = UUID.randomUUID().toString();
+
+        lane.add(first);
+        lane.add(second);
+        lane.add(recovered);
+        lane.add(third);
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+
+        // a batch is made of the transfers received the same way, so the recovered one is executed in between
+        InOrder inOrder = inOrder(commandService);
+        inOrder.verify(commandService).executeCreatedTransactions(List.of(first, second));
+        inOrder.verify(commandService).executeTransaction(recovered);
+        inOrder.verify(commandService).executeTransaction(third);
+        assertEquals(List.of(first.id(), second.id(), recovered, third.id()), executed);
+    }
+
+    @Test
+    void testAdd_SingleBatchInFlight() {
+        TransferLane lane = new TransferLane(vertx, commandService, manual, 2, 5, executed::add);
+
+        lane.add(transfer());
+        lane.add(transfer());
+        lane.add(transfer());
+        lane.add(transfer());
+        lane.add(transfer());
+
+        // the full batches received meanwhile wait for the one executed
+        assertEquals(1, pending.size());
+        verifyNoInteractions(commandService);
+    }
+
+    @Test
+    void testFlush_DrainsAfterBatchCompletes() {
+        TransferLane lane = new TransferLane(vertx, commandService, manual, 10, 5, executed::add);
+        Transaction first = transfer();
+        Transaction second = transfer();
+        Transaction third = transfer();
+
+        lane.add(first);
+        assertEquals(0, pending.size());
+        timers.get(0).handle(1L);
+        lane.add(second);
+        lane.add(third);
+        pending.remove(0).run();
+
+        // the transfers received meanwhile are executed right away rather than waiting for the delay again
+        assertEquals(1, timers.size());
+        assertEquals(1, pending.size());
+        pending.remove(0).run();
+        verify(commandService).executeTransaction(first);
+        verify(commandService).executeCreatedTransactions(List.of(second, third));
+        assertEquals(List.of(first.id(), second.id(), third.id()), executed);
+    }
+
+    private static Transaction transfer() {
+        return new TransferRequest(UUID.randomUUID(), "payer-account", "recipient-account", "recipient", Money.fromInt(1))
+                .toTransaction("payer");
+    }
+
+    @SneakyThrows
+    private static <T> void complete(Callable<T> task, Promise<T> promise) {
+        promise.complete(task.call());
+    }
+}
@@ -0,0 +1,21 @@
+package dev.maltsev.money.transfer.api.verticle;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WithdrawalPollerTest {
+
+    @Test
+    void testBackoff_DoublesUpToMax() {
+        for (int i = 0; i < 100; i++) {
+            long first = WithdrawalPoller.backoff(0, 1000, 30_000);
+            long third = WithdrawalPoller.backoff(2, 1000, 30_000);
+            long late = WithdrawalPoller.backoff(50, 1000, 30_000);
+
+            assertTrue(first >= 500 && first <= 1000, "first: " + first);
+            assertTrue(third >= 2000 && third <= 4000, "third: " + third);
+            assertTrue(late >= 15_000 && late <= 30_000, "late: " + late);
+        }
+    }
+}
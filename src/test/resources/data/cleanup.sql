@@ -1,5 +1,7 @@
+TRUNCATE TABLE WITHDRAWAL_OUTBOX RESTART IDENTITY AND COMMIT NO CHECK;
 TRUNCATE TABLE TRANSACTION_HISTORY RESTART IDENTITY AND COMMIT NO CHECK;
 TRUNCATE TABLE TRANSACTIONS RESTART IDENTITY AND COMMIT NO CHECK;
+TRUNCATE TABLE ACCOUNT_STRIPES RESTART IDENTITY AND COMMIT NO CHECK;
 TRUNCATE TABLE CUSTOMER_ACCOUNTS RESTART IDENTITY AND COMMIT NO CHECK;
 TRUNCATE TABLE ACCOUNTS RESTART IDENTITY AND COMMIT NO CHECK;
 TRUNCATE TABLE CUSTOMERS RESTART IDENTITY AND COMMIT NO CHECK;
\ No newline at end of file